@@ -1,6 +1,7 @@
 plugins {
     java
     alias(libs.plugins.quarkus)
+    alias(libs.plugins.jmh)
 }
 
 repositories {
@@ -13,6 +14,7 @@ dependencies {
     implementation("io.quarkus:quarkus-messaging-mqtt")
     implementation("io.quarkus:quarkus-resteasy-jackson")
     implementation("io.quarkus:quarkus-arc")
+    implementation("io.quarkus:quarkus-micrometer-registry-prometheus")
     testImplementation("io.quarkus:quarkus-junit5")
     testImplementation("io.rest-assured:rest-assured")
     testImplementation("io.vertx:vertx-web")
@@ -28,6 +30,12 @@ java {
     targetCompatibility = JavaVersion.VERSION_21
 }
 
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+    profilers.add("gc")
+    resultFormat = "JSON"
+}
+
 tasks {
     withType<JavaCompile> {
         options.encoding = "UTF-8"
@@ -37,3 +45,12 @@ tasks {
         useJUnitPlatform()
     }
 }
+
+tasks.register<JavaExec>("loadTest") {
+    description = "Drives generated meter traffic through the bridge, see LoadHarness for the options."
+    group = "verification"
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass = "org.acme.LoadHarness"
+    systemProperty("java.util.logging.manager", "org.jboss.logmanager.LogManager")
+    args((findProperty("load") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: listOf<String>())
+}
@@ -0,0 +1,113 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttProperties;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.vertx.core.Vertx;
+import io.vertx.mqtt.messages.MqttPublishMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Wires the beans the way the application does, configured from benchmark.properties, but without
+ * the container. Nothing is posted, emoncms is disabled.
+ */
+final class BenchmarkSupport {
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    static final SmallRyeConfig CONFIG = config();
+    static final BridgeMetrics METRICS = new BridgeMetrics(new SimpleMeterRegistry());
+
+    private BenchmarkSupport() {
+    }
+
+    private static SmallRyeConfig config() {
+        try {
+            return new SmallRyeConfigBuilder()
+                    .withSources(new PropertiesConfigSource(
+                            BenchmarkSupport.class.getResource("/benchmark.properties"), 100))
+                    .withConverter(Duration.class, 100, new DurationConverter())
+                    .withMapping(AlfenConfig.class)
+                    .withMapping(EmoncmsConfig.class)
+                    .withMapping(EvccConfig.class)
+                    .withMapping(HistoryConfig.class)
+                    .withMapping(MqttConfig.class)
+                    .withMapping(QbusConfig.class)
+                    .withMapping(SlimmelezerConfig.class)
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static <T> T config(Class<T> mapping) {
+        return CONFIG.getConfigMapping(mapping);
+    }
+
+    static MqttPublishMessage message(String topic, byte[] payload) {
+        return MqttPublishMessage.create(0, MqttQoS.AT_MOST_ONCE, false, false, topic,
+                Unpooled.wrappedBuffer(payload), MqttProperties.NO_PROPERTIES);
+    }
+
+    static MqttPublishMessage message(String topic, String payload) {
+        return message(topic, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static byte[] payload(String name) {
+        try (InputStream in = BenchmarkSupport.class.getResourceAsStream("/payloads/" + name)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static FlushScheduler flushScheduler(Vertx vertx) {
+        return new FlushScheduler(vertx, config(EmoncmsConfig.class));
+    }
+
+    static EmonPoster emonPoster(Vertx vertx) {
+        EmoncmsConfig emoncmsConfig = config(EmoncmsConfig.class);
+        return new EmonPoster(OBJECT_MAPPER, emoncmsConfig, vertx, new EmonOutbox(emoncmsConfig), METRICS,
+                flushScheduler(vertx), new EmonTransport(vertx, emoncmsConfig, METRICS));
+    }
+
+    static EmonBulkPoster emonBulkPoster(Vertx vertx, EmonPoster emonPoster) {
+        return new EmonBulkPoster(flushScheduler(vertx), emonPoster, config(EmoncmsConfig.class));
+    }
+
+    static EmonPosterCache emonPosterCache(Vertx vertx) {
+        EmonPoster emonPoster = emonPoster(vertx);
+        return new EmonPosterCache(flushScheduler(vertx), emonPoster, emonBulkPoster(vertx, emonPoster), METRICS,
+                config(EmoncmsConfig.class), new History(config(HistoryConfig.class)));
+    }
+
+    static MqttSubscriberAlfen alfen(Vertx vertx) {
+        return new MqttSubscriberAlfen(OBJECT_MAPPER, config(AlfenConfig.class), emonPosterCache(vertx),
+                METRICS);
+    }
+
+    static MqttSubscriberEvcc evcc(Vertx vertx) {
+        return new MqttSubscriberEvcc(config(EvccConfig.class), emonPosterCache(vertx), METRICS);
+    }
+
+    static MqttSubscriberSlimmelezer slimmelezer(Vertx vertx) {
+        return new MqttSubscriberSlimmelezer(config(SlimmelezerConfig.class), emonPosterCache(vertx), METRICS);
+    }
+
+    static MqttSubscriberQbus qbus(Vertx vertx) {
+        EmonPoster emonPoster = emonPoster(vertx);
+        return new MqttSubscriberQbus(flushScheduler(vertx), config(MqttConfig.class), config(QbusConfig.class),
+                OBJECT_MAPPER, emonPoster, emonBulkPoster(vertx, emonPoster), METRICS, config(EmoncmsConfig.class));
+    }
+}
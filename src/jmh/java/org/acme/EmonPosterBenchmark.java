@@ -0,0 +1,70 @@
+package org.acme;
+
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the request bodies for emoncms, one device per request and bulk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmonPosterBenchmark {
+    private Vertx vertx;
+    private EmonPoster emonPoster;
+    private Map<String, Object> alfenValues;
+    private List<EmonPoster.BulkEntry> bulkEntries;
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        emonPoster = BenchmarkSupport.emonPoster(vertx);
+        alfenValues = new HashMap<>();
+        for (String feed : List.of("currentL1", "currentL2", "currentL3", "powerRealL1", "powerRealL2",
+                "powerRealL3", "powerRealSum", "energyRealDeliveredSum", "cosPhiSum", "voltageL1N",
+                "voltageL2N", "voltageL3N")) {
+            alfenValues.put("meter1_" + feed, 230.0 + feed.length() / 10.0);
+        }
+        Map<String, Object> qbusValues = new HashMap<>();
+        for (int i = 1; i <= 120; i++) {
+            qbusValues.put("output_" + i, i % 2 == 0 ? 100 : 0);
+        }
+        bulkEntries = List.of(
+                new EmonPoster.BulkEntry(0, "alfen1", alfenValues),
+                new EmonPoster.BulkEntry(0, "qbus-switch", qbusValues),
+                new EmonPoster.BulkEntry(0, "slimmelezer", Map.of("power_consumed", 0.412, "power_produced", 0.0)));
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    public byte[] postBody() {
+        return emonPoster.getEmoncmsData("alfen1", alfenValues);
+    }
+
+    @Benchmark
+    public List<String> bulkBody() {
+        return EmonPoster.getBulkData(BenchmarkSupport.OBJECT_MAPPER, bulkEntries, 65536);
+    }
+}
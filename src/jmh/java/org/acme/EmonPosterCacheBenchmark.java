@@ -0,0 +1,69 @@
+package org.acme;
+
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EmonPosterCache#add} from several producer threads on one cache, as happens when subscribers
+ * share a cache or ingestion runs on more than one thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmonPosterCacheBenchmark {
+    private static final String[] KEYS = {
+            "power_consumed", "power_produced",
+            "power_consumed_phase_1", "power_consumed_phase_2", "power_consumed_phase_3",
+            "power_produced_phase_1", "power_produced_phase_2", "power_produced_phase_3"
+    };
+    private Vertx vertx;
+    private EmonPosterCache cache;
+    private Map<String, Object> alfenValues;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        int next;
+    }
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        cache = BenchmarkSupport.emonPosterCache(vertx);
+        alfenValues = Map.of("meter1_currentL1", 6.25, "meter1_currentL2", 6.5, "meter1_currentL3", 6.0,
+                "meter1_powerRealSum", 4381.2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addSingleValue(Producer producer) {
+        cache.add("slimmelezer", KEYS[producer.next++ & 7], 0.412);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addValues() {
+        cache.add("alfen1", alfenValues);
+    }
+}
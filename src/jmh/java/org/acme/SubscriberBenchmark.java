@@ -0,0 +1,116 @@
+package org.acme;
+
+import io.vertx.core.Vertx;
+import io.vertx.mqtt.messages.MqttPublishMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch through the topic router and consume of every subscriber, with payloads as the devices
+ * publish them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriberBenchmark {
+    private Vertx vertx;
+    private MqttTopicRouter router;
+    private MqttSubscriberAlfen alfen;
+    private MqttSubscriberEvcc evcc;
+    private MqttSubscriberQbus qbus;
+    private MqttSubscriberSlimmelezer slimmelezer;
+
+    private MqttPublishMessage alfenMeter;
+    private MqttPublishMessage alfenUnknownCategory;
+    private MqttPublishMessage evccChargePower;
+    private MqttPublishMessage evccChargeCurrent;
+    private MqttPublishMessage qbusState;
+    private MqttPublishMessage qbusInfo;
+    private MqttPublishMessage slimmelezerPower;
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        alfen = BenchmarkSupport.alfen(vertx);
+        evcc = BenchmarkSupport.evcc(vertx);
+        qbus = BenchmarkSupport.qbus(vertx);
+        slimmelezer = BenchmarkSupport.slimmelezer(vertx);
+        router = new MqttTopicRouter(List.of(alfen, evcc, qbus, slimmelezer));
+
+        alfenMeter = BenchmarkSupport.message("alfen/properties/alfen1/category/meter1",
+                BenchmarkSupport.payload("alfen-meter1.json"));
+        alfenUnknownCategory = BenchmarkSupport.message("alfen/properties/alfen1/category/display",
+                BenchmarkSupport.payload("alfen-meter1.json"));
+        evccChargePower = BenchmarkSupport.message("evcc/loadpoints/1/chargePower", "7362.4");
+        evccChargeCurrent = BenchmarkSupport.message("evcc/loadpoints/1/chargeCurrents/l2", "10.66");
+        qbusInfo = BenchmarkSupport.message("qbus/1/info/outputs/switch",
+                BenchmarkSupport.payload("qbus-info-switch.json"));
+        qbusState = BenchmarkSupport.message("qbus/1/sensor/switch/42/state", "100");
+        slimmelezerPower = BenchmarkSupport.message("slimmelezer/sensor/power_consumed_phase_1/state", "0.412");
+        dispatch(qbusInfo);
+    }
+
+    @TearDown
+    public void tearDown() {
+        vertx.close();
+    }
+
+    private void dispatch(MqttPublishMessage msg) {
+        MqttTopic topic = MqttTopic.of(msg.topicName());
+        List<MqttSubscriber> subscribers = router.route(topic);
+        for (int i = 0; i < subscribers.size(); i++) {
+            subscribers.get(i).consume(topic, msg);
+        }
+    }
+
+    @Benchmark
+    public List<MqttSubscriber> route() {
+        return router.route(MqttTopic.of(slimmelezerPower.topicName()));
+    }
+
+    @Benchmark
+    public void alfenMeter() {
+        dispatch(alfenMeter);
+    }
+
+    @Benchmark
+    public void alfenUnknownCategory() {
+        dispatch(alfenUnknownCategory);
+    }
+
+    @Benchmark
+    public void evcc() {
+        dispatch(evccChargePower);
+        dispatch(evccChargeCurrent);
+    }
+
+    @Benchmark
+    public void qbusState() {
+        dispatch(qbusState);
+    }
+
+    @Benchmark
+    public void qbusInfo() {
+        dispatch(qbusInfo);
+    }
+
+    @Benchmark
+    public void slimmelezer() {
+        dispatch(slimmelezerPower);
+    }
+}
@@ -0,0 +1,224 @@
+package org.acme;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters of the bridge, from the MQTT messages in to the requests to emoncms. All meters are
+ * registered up front, so recording on the hot path only touches a counter or timer and never
+ * creates tags.
+ */
+@ApplicationScoped
+public class BridgeMetrics {
+    private final MeterRegistry registry;
+    private final Counter unrouted;
+    private final Counter ingressDropped;
+    private final Counter forwarded;
+    private final Counter retries;
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final Post post;
+    private final Post bulk;
+
+    public BridgeMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.unrouted = Counter.builder("mqtt.messages.unrouted")
+                .description("MQTT messages no subscriber handles")
+                .register(registry);
+        this.ingressDropped = Counter.builder("mqtt.ingress.dropped")
+                .description("MQTT messages dropped because the ingress queue was full")
+                .register(registry);
+        this.forwarded = Counter.builder("mqtt.messages.forwarded")
+                .description("MQTT messages forwarded to the cluster node owning their device")
+                .register(registry);
+        this.retries = Counter.builder("emon.requests.retries")
+                .description("Requests to emoncms sent again after a failure")
+                .register(registry);
+        this.post = new Post(registry, "post");
+        this.bulk = new Post(registry, "bulk");
+    }
+
+    public Subscriber subscriber(String name) {
+        return subscribers.computeIfAbsent(name, n -> new Subscriber(registry, n));
+    }
+
+    public void unrouted() {
+        unrouted.increment();
+    }
+
+    public <T> void ingressQueue(String connection, T queue, ToDoubleFunction<T> depth) {
+        Gauge.builder("mqtt.ingress.depth", queue, depth)
+                .description("MQTT messages waiting for the subscribers")
+                .tag("connection", connection)
+                .register(registry);
+    }
+
+    public <T> void ingressConflated(String connection, T queue, ToDoubleFunction<T> conflated) {
+        FunctionCounter.builder("mqtt.ingress.conflated", queue, conflated)
+                .description("MQTT messages replaced by a newer one of the same topic because the ingress queue was full")
+                .tag("connection", connection)
+                .register(registry);
+    }
+
+    public void ingressDropped(int dropped) {
+        ingressDropped.increment(dropped);
+    }
+
+    public void forwarded() {
+        forwarded.increment();
+    }
+
+    public <T> void clusterMembers(T cluster, ToDoubleFunction<T> members) {
+        Gauge.builder("mqtt.cluster.members", cluster, members)
+                .description("Nodes in the cluster, including this one")
+                .register(registry);
+    }
+
+    /**
+     * Meters of the requests to /input/post.
+     */
+    public Post post() {
+        return post;
+    }
+
+    /**
+     * Meters of the requests to /input/bulk.
+     */
+    public Post bulk() {
+        return bulk;
+    }
+
+    public void retried() {
+        retries.increment();
+    }
+
+    /**
+     * State of the circuit breaker in front of emoncms, 0 closed, 1 open and 2 half open.
+     */
+    public <T> void circuitBreaker(T breaker, ToDoubleFunction<T> state) {
+        Gauge.builder("emon.circuit.state", breaker, state)
+                .description("State of the circuit breaker, 0 closed, 1 open, 2 half open")
+                .register(registry);
+    }
+
+    public <T> void transport(T transport, ToDoubleFunction<T> inFlight) {
+        Gauge.builder("emon.transport.in.flight", transport, inFlight)
+                .description("Requests to emoncms waiting for an answer")
+                .register(registry);
+    }
+
+    public Counter transportResponses(String version) {
+        return Counter.builder("emon.transport.responses")
+                .description("Responses of emoncms by negotiated HTTP version")
+                .tag("version", version)
+                .register(registry);
+    }
+
+    public Counter transportBodyBytes(String encoding) {
+        return Counter.builder("emon.transport.body.bytes")
+                .description("Bytes of request bodies sent to emoncms, by content encoding")
+                .tag("encoding", encoding)
+                .register(registry);
+    }
+
+    /**
+     * Registers the pending and flushed values of a cache, the gauges are read when scraped.
+     */
+    public <T> DistributionSummary cache(String name, T cache, ToDoubleFunction<T> pendingDevices,
+                                         ToDoubleFunction<T> pendingKeys) {
+        Gauge.builder("emon.cache.pending.devices", cache, pendingDevices)
+                .description("Devices with values waiting for the next flush")
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("emon.cache.pending.keys", cache, pendingKeys)
+                .description("Values waiting for the next flush")
+                .tag("cache", name)
+                .register(registry);
+        return DistributionSummary.builder("emon.cache.flush.keys")
+                .description("Values taken per flush")
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    public Counter cacheFiltered(String name) {
+        return Counter.builder("emon.cache.filtered.keys")
+                .description("Values not sent because they hardly differ from the value last sent")
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    public static final class Subscriber {
+        private final Counter received;
+        private final Counter parseFailures;
+        private final Timer consume;
+
+        private Subscriber(MeterRegistry registry, String name) {
+            received = Counter.builder("mqtt.messages.received")
+                    .description("MQTT messages routed to a subscriber")
+                    .tag("subscriber", name)
+                    .register(registry);
+            parseFailures = Counter.builder("mqtt.messages.parse.failures")
+                    .description("MQTT messages a subscriber could not parse")
+                    .tag("subscriber", name)
+                    .register(registry);
+            consume = Timer.builder("mqtt.messages.consume")
+                    .description("Time to parse and cache one MQTT message")
+                    .tag("subscriber", name)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        public void received() {
+            received.increment();
+        }
+
+        public void parseFailed() {
+            parseFailures.increment();
+        }
+
+        public void consumed(long startNanos) {
+            consume.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static final class Post {
+        // by status class, 0 is a request without a usable response
+        private final Counter[] responses = new Counter[6];
+        private final Timer latency;
+
+        private Post(MeterRegistry registry, String endpoint) {
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = Counter.builder("emon.requests")
+                        .description("Requests to emoncms by status")
+                        .tag("endpoint", endpoint)
+                        .tag("status", i == 0 ? "error" : i + "xx")
+                        .register(registry);
+            }
+            latency = Timer.builder("emon.requests.latency")
+                    .description("Time until emoncms answered a request")
+                    .tag("endpoint", endpoint)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        public void answered(long startNanos, int statusCode) {
+            latency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            int statusClass = statusCode / 100;
+            responses[statusClass > 0 && statusClass < responses.length ? statusClass : 0].increment();
+        }
+
+        public void failed(long startNanos) {
+            latency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            responses[0].increment();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.acme;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects the pending values of all registered sources and posts them in one /input/bulk request
+ * per flush, values for the same device coming from different sources are merged.
+ */
+@ApplicationScoped
+public class EmonBulkPoster {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final FlushScheduler flushScheduler;
+    private final EmonPoster emonPoster;
+    private final EmoncmsConfig emoncmsConfig;
+    private final List<EmonSource> sources = new CopyOnWriteArrayList<>();
+
+    public EmonBulkPoster(FlushScheduler flushScheduler, EmonPoster emonPoster, EmoncmsConfig emoncmsConfig) {
+        this.flushScheduler = flushScheduler;
+        this.emonPoster = emonPoster;
+        this.emoncmsConfig = emoncmsConfig;
+    }
+
+    public boolean enabled() {
+        return emoncmsConfig.bulk().enabled();
+    }
+
+    public void register(String name, EmonSource source) {
+        LOG.info("Registering bulk source {}", name);
+        sources.add(source);
+    }
+
+    public void onStart(@Observes StartupEvent startupEvent) {
+        if (!enabled()) {
+            return;
+        }
+        flushScheduler.register("bulk", emoncmsConfig.bulk().interval(), this::flush);
+    }
+
+    private void flush() {
+        Map<String, Map<String, Object>> valuesForDevices = new HashMap<>();
+        for (EmonSource source : sources) {
+            source.drain().forEach((device, values) ->
+                    valuesForDevices.computeIfAbsent(device, d -> new HashMap<>()).putAll(values));
+        }
+        if (valuesForDevices.isEmpty()) {
+            LOG.debug("Stale, not sending bulk info");
+            return;
+        }
+        emonPoster.postBulk(valuesForDevices);
+    }
+}
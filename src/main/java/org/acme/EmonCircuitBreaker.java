@@ -0,0 +1,111 @@
+package org.acme;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops the requests to emoncms after repeated failures. Once the open duration has passed, a single
+ * probe request is let through: when it succeeds requests flow again, when it fails the breaker
+ * stays open for another open duration. A probe that ends without an outcome, or gets none within the
+ * open duration, hands the probe to the next request.
+ */
+final class EmonCircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private long probeStartedAt;
+
+    EmonCircuitBreaker(EmoncmsConfig.CircuitBreaker config) {
+        this(config.failureThreshold(), config.openDuration().toNanos(), System::nanoTime);
+    }
+
+    EmonCircuitBreaker(int failureThreshold, long openNanos, LongSupplier nanoTime) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Whether a request may be sent now, the first call after the open duration turns it into the probe.
+     */
+    synchronized boolean allowRequest() {
+        return switch (state) {
+            case CLOSED -> true;
+            case HALF_OPEN -> {
+                long now = nanoTime.getAsLong();
+                if (now - probeStartedAt < openNanos) {
+                    yield false;
+                }
+                LOG.info("No outcome of the probe, probing again");
+                probeStartedAt = now;
+                yield true;
+            }
+            case OPEN -> {
+                long now = nanoTime.getAsLong();
+                if (now - openedAt < openNanos) {
+                    yield false;
+                }
+                LOG.info("Probing whether emoncms recovered");
+                state = State.HALF_OPEN;
+                probeStartedAt = now;
+                yield true;
+            }
+        };
+    }
+
+    /**
+     * Records a request emoncms answered.
+     *
+     * @return true when this closed the breaker again
+     */
+    synchronized boolean onSuccess() {
+        failures = 0;
+        if (state == State.CLOSED) {
+            return false;
+        }
+        LOG.info("emoncms recovered, sending again");
+        state = State.CLOSED;
+        return true;
+    }
+
+    /**
+     * Records a request that failed in a way emoncms being down explains.
+     */
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0 && failures >= failureThreshold)) {
+            LOG.warn("emoncms failed {} times in a row, not sending for {} ms", failures, openNanos / 1_000_000);
+            state = State.OPEN;
+            openedAt = nanoTime.getAsLong();
+        }
+    }
+
+    /**
+     * Records a request that was let through but ended before emoncms answered or failed, for instance
+     * interrupted while waiting for its turn. When it was the probe, the next request probes instead.
+     */
+    synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = nanoTime.getAsLong() - openNanos;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,87 @@
+package org.acme;
+
+import io.quarkus.runtime.ShutdownEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.acme.data.EmonSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Keeps the values that could not be posted to emoncms on disk, see {@link EmonOutboxStore}, so
+ * {@link EmonPoster} can replay them with their original time once emoncms is reachable again.
+ */
+@ApplicationScoped
+public class EmonOutbox {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final EmoncmsConfig emoncmsConfig;
+    private EmonOutboxStore store;
+
+    public EmonOutbox(EmoncmsConfig emoncmsConfig) {
+        this.emoncmsConfig = emoncmsConfig;
+        EmoncmsConfig.Outbox config = emoncmsConfig.outbox();
+        if (config.enabled()) {
+            try {
+                store = new EmonOutboxStore(Path.of(config.file()), config.size());
+                LOG.info("Outbox {} opened with {} samples waiting", config.file(), store.count());
+            } catch (IOException e) {
+                LOG.warn("Could not open outbox {}, values that can't be posted will be lost", config.file(), e);
+            }
+        }
+    }
+
+    void onShutdown(@Observes ShutdownEvent event) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close outbox", e);
+        }
+    }
+
+    public boolean enabled() {
+        return store != null;
+    }
+
+    public boolean isEmpty() {
+        return store == null || store.isEmpty();
+    }
+
+    public int count() {
+        return store == null ? 0 : store.count();
+    }
+
+    public void append(long time, Map<String, ? extends Map<String, ?>> valuesForDevices) {
+        if (store == null) {
+            return;
+        }
+        long evicted = store.evicted();
+        valuesForDevices.forEach((device, values) -> values.forEach((key, value) -> {
+            if (value instanceof Number number) {
+                if (!store.append(new EmonSample(time, device, key, number.doubleValue()))) {
+                    LOG.warn("Sample {}/{} too large for the outbox", device, key);
+                }
+            } else {
+                LOG.debug("Not keeping non numeric value of {}/{} in the outbox", device, key);
+            }
+        }));
+        if (store.evicted() != evicted) {
+            LOG.warn("Outbox full, dropped {} oldest samples", store.evicted() - evicted);
+        }
+    }
+
+    public EmonOutboxStore.Batch peek() {
+        return store.peek(emoncmsConfig.outbox().batchSize());
+    }
+
+    public void commit(EmonOutboxStore.Batch batch) {
+        store.commit(batch);
+    }
+}
@@ -0,0 +1,195 @@
+package org.acme;
+
+import org.acme.data.EmonSample;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only ring of timestamped samples in a memory-mapped file of fixed size. When the file is
+ * full the oldest samples are evicted. Samples are read oldest first with {@link #peek(int)} and only
+ * removed once {@link #commit(Batch)} confirms they were handled.
+ * <p>
+ * Layout: a header {@code magic, head, tail, count} followed by records
+ * {@code length, time, device, key, value}. A record length of {@link #WRAP} marks the end of the
+ * data before it continues at the start of the data region.
+ */
+public class EmonOutboxStore implements AutoCloseable {
+    private static final int MAGIC = 0x454d4f31;
+    private static final int HEADER_SIZE = 16;
+    private static final int WRAP = -1;
+    private static final int MIN_SIZE = 1024;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private int head;
+    private int tail;
+    private int count;
+    // number of samples evicted to make room since startup
+    private long evicted;
+
+    public record Batch(List<EmonSample> samples, long evicted) {
+    }
+
+    public EmonOutboxStore(Path file, int size) throws IOException {
+        if (size < MIN_SIZE) {
+            throw new IllegalArgumentException("Outbox needs at least " + MIN_SIZE + " bytes");
+        }
+        this.size = size;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = channel.size() == size;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (existing && buffer.getInt(0) == MAGIC) {
+            head = buffer.getInt(4);
+            tail = buffer.getInt(8);
+            count = buffer.getInt(12);
+        } else {
+            reset();
+        }
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    public synchronized long evicted() {
+        return evicted;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return false if the sample is larger than the whole outbox and was dropped
+     */
+    public synchronized boolean append(EmonSample sample) {
+        byte[] device = sample.device().getBytes(StandardCharsets.UTF_8);
+        byte[] key = sample.key().getBytes(StandardCharsets.UTF_8);
+        int length = 4 + 8 + 2 + device.length + 2 + key.length + 8;
+        if (length > size - HEADER_SIZE || device.length > Short.MAX_VALUE || key.length > Short.MAX_VALUE) {
+            return false;
+        }
+        while (true) {
+            if (count == 0) {
+                head = HEADER_SIZE;
+                tail = HEADER_SIZE;
+            }
+            if (count == 0 || tail > head) {
+                // free space after tail up to the end, and before head
+                if (tail + length <= size) {
+                    break;
+                }
+                if (tail + 4 <= size) {
+                    buffer.putInt(tail, WRAP);
+                }
+                tail = HEADER_SIZE;
+            } else {
+                // wrapped, free space between tail and head
+                if (tail + length <= head) {
+                    break;
+                }
+                dropOldest();
+                evicted++;
+            }
+        }
+        buffer.putInt(tail, length);
+        buffer.putLong(tail + 4, sample.time());
+        buffer.putShort(tail + 12, (short) device.length);
+        buffer.put(tail + 14, device);
+        buffer.putShort(tail + 14 + device.length, (short) key.length);
+        buffer.put(tail + 16 + device.length, key);
+        buffer.putDouble(tail + 16 + device.length + key.length, sample.value());
+        tail += length;
+        count++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Reads up to {@code maxSamples} of the oldest samples without removing them.
+     */
+    public synchronized Batch peek(int maxSamples) {
+        List<EmonSample> samples = new ArrayList<>(Math.min(maxSamples, count));
+        int position = head;
+        for (int i = 0; i < count && samples.size() < maxSamples; i++) {
+            position = skipWrap(position);
+            int length = buffer.getInt(position);
+            long time = buffer.getLong(position + 4);
+            int deviceLength = buffer.getShort(position + 12);
+            String device = readString(position + 14, deviceLength);
+            int keyLength = buffer.getShort(position + 14 + deviceLength);
+            String key = readString(position + 16 + deviceLength, keyLength);
+            double value = buffer.getDouble(position + 16 + deviceLength + keyLength);
+            samples.add(new EmonSample(time, device, key, value));
+            position += length;
+        }
+        return new Batch(samples, evicted);
+    }
+
+    /**
+     * Removes the samples of a batch returned by {@link #peek(int)}. Samples of the batch that were
+     * evicted in the meantime are not removed twice.
+     */
+    public synchronized void commit(Batch batch) {
+        long toDrop = batch.samples().size() - (evicted - batch.evicted());
+        for (long i = 0; i < toDrop && count > 0; i++) {
+            dropOldest();
+        }
+        writeHeader();
+    }
+
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private void dropOldest() {
+        head = skipWrap(head);
+        head += buffer.getInt(head);
+        count--;
+        if (count == 0) {
+            head = HEADER_SIZE;
+            tail = HEADER_SIZE;
+        }
+    }
+
+    private int skipWrap(int position) {
+        if (position + 4 > size || buffer.getInt(position) == WRAP) {
+            return HEADER_SIZE;
+        }
+        return position;
+    }
+
+    private String readString(int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void reset() {
+        head = HEADER_SIZE;
+        tail = HEADER_SIZE;
+        count = 0;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, head);
+        buffer.putInt(8, tail);
+        buffer.putInt(12, count);
+    }
+}
@@ -4,93 +4,590 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Vertx;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
+import org.acme.data.EmonSample;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 @ApplicationScoped
 public class EmonPoster {
     private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    // emoncms answers 200 with an error body when it refuses the input
+    private static final Pattern REFUSED = Pattern.compile("\"success\"\\s*:\\s*false|^Error");
     private final ObjectMapper objectMapper;
     private final EmoncmsConfig emoncmsConfig;
-    private HttpClient httpClient;
+    private final Vertx vertx;
+    private final EmonOutbox emonOutbox;
+    private final BridgeMetrics metrics;
+    private final FlushScheduler flushScheduler;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private final EmonTransport transport;
+    private final InFlightLimiter inFlightLimiter;
+    private final EmonRequestEncoder requestEncoder;
+    private final URI postUri;
+    private final URI bulkUri;
+    // in virtual-threads mode the requests block, the permits limit how many wait for emoncms
+    private final ExecutorService virtualThreads;
+    private final Semaphore permits;
+    // last request per device, requests for the same device are sent and completed one after the other
+    private final Map<String, CompletableFuture<Void>> pipelines = new ConcurrentHashMap<>();
+    private final EmonCircuitBreaker circuitBreaker;
+    // latest values by device that failed to post while the outbox is disabled, sent along with the next post
+    private final Map<String, Map<String, Object>> coalesced = new LinkedHashMap<>();
 
-    public EmonPoster(ObjectMapper objectMapper, EmoncmsConfig emoncmsConfig) {
+    public EmonPoster(ObjectMapper objectMapper, EmoncmsConfig emoncmsConfig, Vertx vertx, EmonOutbox emonOutbox,
+                      BridgeMetrics metrics, FlushScheduler flushScheduler, EmonTransport transport) {
         this.objectMapper = objectMapper;
         this.emoncmsConfig = emoncmsConfig;
+        this.vertx = vertx;
+        this.emonOutbox = emonOutbox;
+        this.metrics = metrics;
+        this.flushScheduler = flushScheduler;
+        this.transport = transport;
+        this.inFlightLimiter = new InFlightLimiter(emoncmsConfig.maxInFlight());
+        this.virtualThreads = emoncmsConfig.execution() == EmoncmsConfig.Execution.VIRTUAL_THREADS
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("emoncms-post-", 0).factory())
+                : null;
+        this.permits = new Semaphore(emoncmsConfig.maxInFlight());
+        this.requestEncoder = new EmonRequestEncoder(objectMapper, emoncmsConfig.apikey());
+        this.postUri = URI.create(emoncmsConfig.endpoint() + "/input/post");
+        this.bulkUri = URI.create(emoncmsConfig.endpoint() + "/input/bulk");
+        this.circuitBreaker = new EmonCircuitBreaker(emoncmsConfig.circuitBreaker());
+        metrics.circuitBreaker(circuitBreaker, b -> b.state().ordinal());
     }
 
     public void onStart(@Observes StartupEvent startupEvent) {
         LOG.info("Startup");
         LOG.info("emoncms: {}", emoncmsConfig.endpoint());
-        httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(30))
-                .build();
+        if (virtualThreads != null) {
+            LOG.info("Posting on virtual threads");
+        }
+        if (emonOutbox.enabled()) {
+            vertx.setPeriodic(emoncmsConfig.outbox().replayInterval().toMillis(), l -> replay());
+        }
     }
 
     void onShutdown(@Observes ShutdownEvent event) {
         LOG.info("Shutdown");
-        httpClient.shutdown();
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+        }
     }
 
-    public void post(String device, Map<String, ?> keys) {
-        String data = getEmoncmsData(device, keys);
+    /**
+     * Posts the values of a device without blocking the caller. Values that fail to post after the
+     * retries are kept in the outbox when it is enabled, as are all values while older ones are still
+     * waiting in it. Without outbox, the latest of those values are sent along with the next post.
+     *
+     * @return completes when emoncms answered, or exceptionally when the post failed
+     */
+    public CompletableFuture<Void> post(String device, Map<String, ?> keys) {
         if (!emoncmsConfig.enabled().orElse(true)) {
             LOG.info("Emoncms disabled, not posting to {}", device);
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, ?> values = withCoalesced(device, keys);
+        long time = System.currentTimeMillis();
+        if (!emonOutbox.isEmpty()) {
+            emonOutbox.append(time, Map.of(device, values));
+            return CompletableFuture.completedFuture(null);
+        }
+        byte[] data = getEmoncmsData(device, values);
+        return pipeline(device, () -> send(transport.post(postUri, data, false), data, metrics.post()))
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        keep(time, Map.of(device, values), e);
+                    }
+                });
+    }
+
+    public CompletableFuture<Void> postBulk(Map<String, ? extends Map<String, ?>> valuesForDevices) {
+        if (!emoncmsConfig.enabled().orElse(true)) {
+            LOG.info("Emoncms disabled, not posting bulk for {}", valuesForDevices.keySet());
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, ? extends Map<String, ?>> values = withCoalesced(valuesForDevices);
+        long time = System.currentTimeMillis();
+        if (!emonOutbox.isEmpty()) {
+            emonOutbox.append(time, values);
+            return CompletableFuture.completedFuture(null);
+        }
+        List<BulkEntry> entries = new ArrayList<>(values.size());
+        values.forEach((device, deviceValues) -> entries.add(new BulkEntry(0, device, deviceValues)));
+        List<BulkRequest> requests = getBulkRequests(objectMapper, entries, emoncmsConfig.bulk().maxRequestSize());
+        LOG.debug("Bulk posting {} devices in {} requests", values.size(), requests.size());
+        CompletableFuture<?>[] posts = new CompletableFuture<?>[requests.size()];
+        for (int i = 0; i < posts.length; i++) {
+            BulkRequest request = requests.get(i);
+            // only the values of a request that failed are kept, the others did arrive
+            posts[i] = sendBulk(request.data(), Map.of())
+                    .whenComplete((r, e) -> {
+                        if (e != null) {
+                            keep(time, request.values(), e);
+                        }
+                    });
+        }
+        return CompletableFuture.allOf(posts);
+    }
+
+    /**
+     * Posts samples with their own time through /input/bulk, consecutive samples of the same device
+     * and second end up in the same entry.
+     */
+    CompletableFuture<Void> postSamples(List<EmonSample> samples) {
+        if (samples.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long time = samples.getFirst().time() / 1000;
+        List<BulkEntry> entries = new ArrayList<>();
+        Map<String, Object> values = null;
+        EmonSample previous = null;
+        for (EmonSample sample : samples) {
+            if (previous == null || previous.time() / 1000 != sample.time() / 1000
+                    || !previous.device().equals(sample.device())) {
+                values = new LinkedHashMap<>();
+                entries.add(new BulkEntry(sample.time() / 1000 - time, sample.device(), values));
+            }
+            values.put(sample.key(), sample.value());
+            previous = sample;
+        }
+        if (!emoncmsConfig.enabled().orElse(true)) {
+            LOG.info("Emoncms disabled, not posting {} samples", samples.size());
+            return CompletableFuture.completedFuture(null);
+        }
+        List<String> bulkData = getBulkData(objectMapper, entries, emoncmsConfig.bulk().maxRequestSize());
+        LOG.debug("Posting {} samples in {} requests", samples.size(), bulkData.size());
+        Map<String, String> parameters = Map.of("time", Long.toString(time));
+        return CompletableFuture.allOf(bulkData.stream()
+                .map(data -> sendBulk(data, parameters))
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    private CompletableFuture<Void> sendBulk(String bulkData, Map<String, String> parameters) {
+        byte[] data = requestEncoder.bulk(parameters, bulkData);
+        return pipeline("bulk", () -> send(transport.post(bulkUri, data, true), data, metrics.bulk()));
+    }
+
+    /**
+     * Replays the outbox oldest first, one batch after the other, until it is empty or a post fails.
+     */
+    private void replay() {
+        if (emonOutbox.isEmpty() || !replaying.compareAndSet(false, true)) {
+            return;
+        }
+        LOG.info("Replaying {} samples from the outbox", emonOutbox.count());
+        replayNext();
+    }
+
+    private void replayNext() {
+        EmonOutboxStore.Batch batch = emonOutbox.peek();
+        if (batch.samples().isEmpty()) {
+            LOG.info("Outbox replayed");
+            replaying.set(false);
             return;
         }
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(emoncmsConfig.endpoint() + "/input/post"))
-                .headers("Content-Type", "application/x-www-form-urlencoded")
-                .POST(HttpRequest.BodyPublishers.ofString(data))
-                .timeout(Duration.ofSeconds(30))
-                .build();
+        postSamples(batch.samples()).whenComplete((r, e) -> {
+            if (e != null) {
+                LOG.info("Replaying outbox failed, {} samples waiting", emonOutbox.count());
+                replaying.set(false);
+                return;
+            }
+            emonOutbox.commit(batch);
+            replayNext();
+        });
+    }
+
+    /**
+     * Queues the request behind the previous request for the same key, whatever the outcome of that one.
+     */
+    private CompletableFuture<Void> pipeline(String key, Supplier<CompletableFuture<Void>> request) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        // completes after the callers of the future saw the outcome, so the next request waits for them too
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        // only the swap is atomic, the request starts outside the map so it never runs under its lock
+        CompletableFuture<Void> previous = pipelines.put(key, done);
+        (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous)
+                .thenCompose(v -> withRetry(() -> virtualThreads != null
+                        ? guarded(request)
+                        : inFlightLimiter.submit(() -> guarded(request))))
+                .whenComplete((r, e) -> {
+                    pipelines.remove(key, done);
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(r);
+                    }
+                    done.complete(null);
+                });
+        return future;
+    }
+
+    /**
+     * Only sends the request when the circuit breaker lets it through, checked as late as possible so
+     * requests waiting for their turn don't go out once the breaker opened.
+     */
+    private CompletableFuture<Void> guarded(Supplier<CompletableFuture<Void>> request) {
+        if (!circuitBreaker.allowRequest()) {
+            return CompletableFuture.failedFuture(new EmoncmsException("emoncms is failing, not sending", true));
+        }
+        try {
+            return request.get();
+        } catch (RuntimeException e) {
+            circuitBreaker.onAbandoned();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Retries requests that failed in a way that may pass, with exponential backoff and jitter. No
+     * retries are started while the circuit breaker is open.
+     */
+    private CompletableFuture<Void> withRetry(Supplier<CompletableFuture<Void>> request) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        attempt(request, 1, result);
+        return result;
+    }
+
+    private void attempt(Supplier<CompletableFuture<Void>> request, int attempt, CompletableFuture<Void> result) {
+        request.get().whenComplete((r, e) -> {
+            if (e == null) {
+                result.complete(null);
+                return;
+            }
+            EmoncmsConfig.Retry retry = emoncmsConfig.retry();
+            if (attempt >= retry.maxAttempts() || !retryable(e)
+                    || circuitBreaker.state() != EmonCircuitBreaker.State.CLOSED) {
+                result.completeExceptionally(e);
+                return;
+            }
+            long backoff = Math.min(retry.initialBackoff().toMillis() << Math.min(attempt - 1, 30),
+                    retry.maxBackoff().toMillis());
+            double jitter = retry.jitter() * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+            long delay = Math.max(1, (long) (backoff * (1 + jitter)));
+            LOG.debug("Retrying in {} ms, attempt {} failed", delay, attempt);
+            metrics.retried();
+            vertx.setTimer(delay, l -> attempt(request, attempt + 1, result));
+        });
+    }
+
+    static boolean retryable(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof EmoncmsException emoncmsException && emoncmsException.retryable();
+    }
+
+    /**
+     * Keeps values that failed to post in a way that may pass later, in the outbox when enabled or
+     * else in memory until the next post. Values emoncms refused are dropped.
+     */
+    private void keep(long time, Map<String, ? extends Map<String, ?>> valuesForDevices, Throwable e) {
+        if (!retryable(e)) {
+            LOG.warn("Dropping values of {}: {}", valuesForDevices.keySet(), e.getMessage());
+            return;
+        }
+        if (emonOutbox.enabled()) {
+            emonOutbox.append(time, valuesForDevices);
+            return;
+        }
+        synchronized (coalesced) {
+            valuesForDevices.forEach((device, values) -> {
+                Map<String, Object> kept = coalesced.computeIfAbsent(device, d -> new LinkedHashMap<>());
+                // values of a newer post may have been kept already
+                values.forEach(kept::putIfAbsent);
+            });
+        }
+    }
+
+    private Map<String, ?> withCoalesced(String device, Map<String, ?> values) {
+        Map<String, Object> kept;
+        synchronized (coalesced) {
+            kept = coalesced.remove(device);
+        }
+        if (kept == null) {
+            return values;
+        }
+        kept.putAll(values);
+        return kept;
+    }
+
+    private Map<String, ? extends Map<String, ?>> withCoalesced(Map<String, ? extends Map<String, ?>> valuesForDevices) {
+        Map<String, Map<String, ?>> merged;
+        synchronized (coalesced) {
+            if (coalesced.isEmpty()) {
+                return valuesForDevices;
+            }
+            merged = new LinkedHashMap<>(coalesced);
+            coalesced.clear();
+        }
+        valuesForDevices.forEach((device, values) -> merged.merge(device, values, (kept, newer) -> {
+            Map<String, Object> both = new LinkedHashMap<>(kept);
+            both.putAll(newer);
+            return both;
+        }));
+        return merged;
+    }
 
+    /**
+     * Sends the values kept in memory once emoncms recovered, without waiting for the next post of
+     * their devices.
+     */
+    private void recovered() {
+        Map<String, Map<String, Object>> kept;
+        synchronized (coalesced) {
+            if (coalesced.isEmpty()) {
+                return;
+            }
+            kept = new LinkedHashMap<>(coalesced);
+            coalesced.clear();
+        }
+        LOG.info("Sending the values of {} devices kept while emoncms failed", kept.size());
+        if (emoncmsConfig.bulk().enabled()) {
+            postBulk(kept);
+        } else {
+            kept.forEach(this::post);
+        }
+    }
+
+    private CompletableFuture<Void> send(HttpRequest request, byte[] data, BridgeMetrics.Post meters) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("POST: {} -- {}", request.uri(), new String(data, StandardCharsets.US_ASCII));
+        }
+        if (virtualThreads != null) {
+            return CompletableFuture.runAsync(() -> sendBlocking(request, meters), virtualThreads);
+        }
+        long start = System.nanoTime();
+        return transport.sendAsync(request)
+                .handle((response, e) -> {
+                    if (e != null) {
+                        throw failed(request, start, meters, e);
+                    }
+                    answered(response, start, meters);
+                    return null;
+                });
+    }
 
+    void sendBlocking(HttpRequest request, BridgeMetrics.Post meters) {
         try {
-            LOG.debug("POST: {} -- {}", request.uri(), data);
-            HttpResponse<String> response = httpClient
-                    .send(request, HttpResponse.BodyHandlers.ofString());
-            LOG.debug("http response: {} -- {}", response.statusCode(), response.body());
-        } catch (Exception e) {
-            LOG.warn("Error posting to emoncms", e);
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            circuitBreaker.onAbandoned();
+            throw new EmoncmsException("Interrupted before posting to " + request.uri(), e);
         }
+        long start = System.nanoTime();
+        try {
+            answered(transport.send(request), start, meters);
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw failed(request, start, meters, e);
+        } finally {
+            permits.release();
+        }
+    }
 
+    EmonCircuitBreaker circuitBreaker() {
+        return circuitBreaker;
     }
 
-    private String getEmoncmsData(String device, Map<String, ?> keys) {
+    private void answered(HttpResponse<String> response, long start, BridgeMetrics.Post meters) {
+        int status = response.statusCode();
+        boolean unavailable = unavailable(status);
+        meters.answered(start, status);
+        flushScheduler.requestCompleted(System.nanoTime() - start, unavailable);
+        LOG.debug("http response: {} -- {}", status, response.body());
+        if (unavailable) {
+            circuitBreaker.onFailure();
+        } else if (circuitBreaker.onSuccess()) {
+            // emoncms is up, even when it refuses this request
+            recovered();
+        }
+        EmoncmsException rejected = rejected(status, response.body());
+        if (rejected != null) {
+            throw rejected;
+        }
+    }
+
+    /**
+     * Whether emoncms can't take requests for now: 5xx, 408 and 429.
+     */
+    static boolean unavailable(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    /**
+     * Why emoncms didn't take the input, null when it did. Unavailable answers may pass when retried,
+     * other 4xx and error bodies won't.
+     */
+    static EmoncmsException rejected(int status, String body) {
+        if (unavailable(status)) {
+            return new EmoncmsException("emoncms answered " + status, true);
+        }
+        if (status >= 400) {
+            return new EmoncmsException("emoncms answered " + status + ": " + body);
+        }
+        if (body != null && REFUSED.matcher(body).find()) {
+            return new EmoncmsException("emoncms refused the input: " + body);
+        }
+        return null;
+    }
+
+    private EmoncmsException failed(HttpRequest request, long start, BridgeMetrics.Post meters, Throwable e) {
+        meters.failed(start);
+        flushScheduler.requestCompleted(System.nanoTime() - start, true);
+        circuitBreaker.onFailure();
+        LOG.warn("Error posting to emoncms", e);
+        return new EmoncmsException("Error posting to " + request.uri(), e, true);
+    }
+
+    byte[] getEmoncmsData(String device, Map<String, ?> keys) {
+        return requestEncoder.post(device, keys);
+    }
+
+    /**
+     * One entry of a bulk request, the offset is in seconds relative to the time of the request.
+     */
+    record BulkEntry(long offset, String device, Map<String, ?> values) {
+    }
+
+    /**
+     * Data parameter of one /input/bulk request and the values it carries by device, the offsets of
+     * the entries are not kept.
+     */
+    record BulkRequest(String data, Map<String, Map<String, Object>> values) {
+    }
+
+    /**
+     * Builds the data parameters of /input/bulk requests, {@code [[offset,"device",{"key":value,...}],...]}.
+     * Whenever the url-encoded data would grow beyond {@code maxRequestSize} a new request is started,
+     * splitting the values of an entry over several entries if needed.
+     */
+    static List<String> getBulkData(ObjectMapper objectMapper, List<BulkEntry> entries, int maxRequestSize) {
+        return getBulkRequests(objectMapper, entries, maxRequestSize).stream().map(BulkRequest::data).toList();
+    }
+
+    static List<BulkRequest> getBulkRequests(ObjectMapper objectMapper, List<BulkEntry> entries, int maxRequestSize) {
         try {
-            String data = objectMapper.writeValueAsString(keys);
-            return getFormDataAsString(Map.of("node", device,
-                    "apikey", emoncmsConfig.apikey(),
-                    "fulljson", data));
+            List<BulkRequest> requests = new ArrayList<>();
+            StringBuilder data = new StringBuilder();
+            Map<String, Map<String, Object>> values = new LinkedHashMap<>();
+            int dataSize = 0;
+            for (BulkEntry entry : entries) {
+                String entryStart = "[" + entry.offset() + "," + objectMapper.writeValueAsString(entry.device()) + ",{";
+                int entryStartSize = encodedLength(entryStart);
+                boolean inEntry = false;
+                for (Map.Entry<String, ?> value : entry.values().entrySet()) {
+                    String field = objectMapper.writeValueAsString(value.getKey()) + ":"
+                            + objectMapper.writeValueAsString(value.getValue());
+                    int fieldSize = encodedLength(field);
+                    int needed = (inEntry ? encodedLength(",") : encodedLength("}],") + entryStartSize)
+                            + fieldSize + encodedLength("}]]");
+                    if (dataSize > 0 && dataSize + needed > maxRequestSize) {
+                        requests.add(new BulkRequest(data.append("}]]").toString(), values));
+                        data.setLength(0);
+                        values = new LinkedHashMap<>();
+                        dataSize = 0;
+                        inEntry = false;
+                    }
+                    String separator = inEntry ? "," : dataSize == 0 ? "[" + entryStart : "}]," + entryStart;
+                    data.append(separator).append(field);
+                    dataSize += encodedLength(separator) + fieldSize;
+                    values.computeIfAbsent(entry.device(), d -> new LinkedHashMap<>())
+                            .put(value.getKey(), value.getValue());
+                    inEntry = true;
+                }
+            }
+            if (dataSize > 0) {
+                requests.add(new BulkRequest(data.append("}]]").toString(), values));
+            }
+            return requests;
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static String getFormDataAsString(Map<String, String> formData) {
-        StringBuilder formBodyBuilder = new StringBuilder();
-        for (Map.Entry<String, String> singleEntry : formData.entrySet()) {
-            if (!formBodyBuilder.isEmpty()) {
-                formBodyBuilder.append("&");
+    private static int encodedLength(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).length();
+    }
+
+    /**
+     * Limits the number of requests waiting for emoncms, requests beyond the limit are started as
+     * soon as an earlier one completes.
+     */
+    private static final class InFlightLimiter {
+        private final int maxInFlight;
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int inFlight;
+
+        InFlightLimiter(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable start = () -> {
+                CompletableFuture<T> started;
+                try {
+                    started = request.get();
+                } catch (RuntimeException e) {
+                    started = CompletableFuture.failedFuture(e);
+                }
+                started.whenComplete((r, e) -> {
+                    release();
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(r);
+                    }
+                });
+            };
+            synchronized (this) {
+                if (inFlight >= maxInFlight) {
+                    waiting.add(start);
+                    return result;
+                }
+                inFlight++;
             }
-            formBodyBuilder.append(URLEncoder.encode(singleEntry.getKey(), StandardCharsets.UTF_8));
-            formBodyBuilder.append("=");
-            formBodyBuilder.append(URLEncoder.encode(singleEntry.getValue(), StandardCharsets.UTF_8));
+            start.run();
+            return result;
         }
-        return formBodyBuilder.toString();
-    }
 
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    inFlight--;
+                    return;
+                }
+            }
+            next.run();
+        }
+    }
 }
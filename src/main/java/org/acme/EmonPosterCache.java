@@ -1,71 +1,186 @@
 package org.acme;
 
-import io.vertx.core.Vertx;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import jakarta.enterprise.context.Dependent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Collects the latest values per device until they are flushed to emoncms, or a running aggregate for
+ * feeds with an aggregation configured. Producers write into the current generation without locking,
+ * a flush swaps in an empty generation and takes the old one as a whole. Feeds with a filter
+ * configured only send values that differ enough from the value last sent.
+ */
 @Dependent
 public class EmonPosterCache {
     private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
-    private final Vertx vertx;
-    private final Map<String, Map<String, Object>> valuesForDevices = new HashMap<>();
+    private final FlushScheduler flushScheduler;
+    private final AtomicReference<Generation> current = new AtomicReference<>(new Generation());
     private final EmonPoster emonPoster;
+    private final EmonBulkPoster emonBulkPoster;
+    private final BridgeMetrics metrics;
+    private final EmoncmsConfig emoncmsConfig;
+    private final History history;
+    private final Map<String, FeedAggregation> aggregations;
+    private final Map<String, FeedFilter> filters;
+    // by device and feed, only touched by the flush
+    private final Map<String, Map<String, FeedFilter.LastSent>> lastSent = new HashMap<>();
     private String name;
+    private DistributionSummary flushedKeys;
+    private Counter filteredKeys;
 
-    public EmonPosterCache(Vertx vertx, EmonPoster emonPoster) {
+    public EmonPosterCache(FlushScheduler flushScheduler, EmonPoster emonPoster, EmonBulkPoster emonBulkPoster, BridgeMetrics metrics,
+                           EmoncmsConfig emoncmsConfig, History history) {
         this.emonPoster = emonPoster;
-        this.vertx = vertx;
+        this.emonBulkPoster = emonBulkPoster;
+        this.flushScheduler = flushScheduler;
+        this.metrics = metrics;
+        this.emoncmsConfig = emoncmsConfig;
+        this.history = history;
+        this.aggregations = new HashMap<>();
+        emoncmsConfig.aggregation().forEach((feed, aggregation) ->
+                aggregations.put(feed, new FeedAggregation(feed, aggregation)));
+        this.filters = new HashMap<>();
+        emoncmsConfig.filter().forEach((feed, filter) -> filters.put(feed, new FeedFilter(filter)));
         this.name = "";
     }
 
     public void start(String name) {
         this.name = name;
-        vertx.setPeriodic(Duration.ofSeconds(10).toMillis(), this::sendInfo);
+        this.flushedKeys = metrics.cache(name, this, EmonPosterCache::pendingDevices, EmonPosterCache::pendingKeys);
+        this.filteredKeys = metrics.cacheFiltered(name);
+        if (emonBulkPoster.enabled()) {
+            emonBulkPoster.register(name, this::drain);
+            return;
+        }
+        flushScheduler.register(name, emoncmsConfig.flush().interval(), this::pendingKeys, this::sendInfo);
     }
 
     public void add(String device, Map<String, ?> keys) {
-        LOG.debug("Adding values for {} (1): {}", device, keys);
-        synchronized (valuesForDevices) {
-            LOG.debug("Adding values for {} (2): {}", device, keys);
-            if (!valuesForDevices.containsKey(device)) {
-                valuesForDevices.put(device, new HashMap<>());
-            }
-            Map<String, Object> values = valuesForDevices.get(device);
-            values.putAll(keys);
+        LOG.debug("Adding values for {}: {}", device, keys);
+        history.record(device, keys);
+        Generation generation = enter();
+        try {
+            Map<String, Object> values = generation.valuesForDevices.computeIfAbsent(device, d -> new ConcurrentHashMap<>());
+            keys.forEach((key, value) -> {
+                if (value == null) {
+                    return;
+                }
+                FeedAggregation aggregation = aggregations.isEmpty() ? null : aggregations.get(key);
+                if (aggregation != null && value instanceof Number number) {
+                    generation.aggregatesForDevices.computeIfAbsent(device, d -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(key, k -> aggregation.newAccumulator())
+                            .add(number.doubleValue());
+                } else {
+                    values.put(key, value);
+                }
+            });
+        } finally {
+            generation.writers.decrementAndGet();
         }
     }
 
-    private void sendInfo(Long l) {
-        LOG.debug("[{}] Sending info to emoncms (1)", name);
-        vertx.executeBlocking((Callable<Void>) () -> {
-            LOG.debug("[{}] Sending info to emoncms (2)", name);
-            Map<String, Map<String, Object>> localValues;
-            synchronized (valuesForDevices) {
-                LOG.debug("[{}] Sending info to emoncms (3)", name);
-                if (valuesForDevices.isEmpty()) {
-                    LOG.info("[{}] Stale, not sending info", name);
-                    return null;
-                }
-                localValues = new HashMap<>(valuesForDevices);
-                valuesForDevices.clear();
+    /**
+     * Registers a writer on the current generation, retrying when a flush swapped it in the meantime.
+     */
+    private Generation enter() {
+        while (true) {
+            Generation generation = current.get();
+            generation.writers.incrementAndGet();
+            if (current.get() == generation) {
+                return generation;
             }
-            localValues.forEach(emonPoster::post);
+            generation.writers.decrementAndGet();
+        }
+    }
 
-            return null;
+    private void sendInfo() {
+        LOG.debug("[{}] Sending info to emoncms", name);
+        Map<String, Map<String, Object>> localValues = drain();
+        if (localValues.isEmpty()) {
+            LOG.info("[{}] Stale, not sending info", name);
+            return;
+        }
+        localValues.forEach(emonPoster::post);
+    }
+
+    Map<String, Map<String, Object>> drain() {
+        LOG.debug("[{}] Draining values", name);
+        Generation generation = current.getAndSet(new Generation());
+        // writers that entered before the swap are at most a few puts away from done
+        while (generation.writers.get() != 0) {
+            Thread.onSpinWait();
+        }
+        Map<String, Map<String, Object>> valuesForDevices = generation.valuesForDevices;
+        generation.aggregatesForDevices.forEach((device, aggregates) -> {
+            Map<String, Object> values = valuesForDevices.computeIfAbsent(device, d -> new ConcurrentHashMap<>());
+            aggregates.values().forEach(accumulator -> accumulator.writeTo(values));
         });
+        if (!filters.isEmpty()) {
+            filter(valuesForDevices);
+        }
+        valuesForDevices.values().removeIf(Map::isEmpty);
+        if (flushedKeys != null) {
+            flushedKeys.record(countKeys(valuesForDevices));
+        }
+        return valuesForDevices;
+    }
+
+    /**
+     * Removes the values the filter of their feed doesn't let through.
+     */
+    private void filter(Map<String, Map<String, Object>> valuesForDevices) {
+        long now = System.nanoTime();
+        valuesForDevices.forEach((device, values) -> values.entrySet().removeIf(entry -> {
+            FeedFilter filter = filters.get(entry.getKey());
+            if (filter == null || !(entry.getValue() instanceof Number number)) {
+                return false;
+            }
+            FeedFilter.LastSent last = lastSent.computeIfAbsent(device, d -> new HashMap<>())
+                    .computeIfAbsent(entry.getKey(), k -> new FeedFilter.LastSent());
+            if (filter.accept(last, number.doubleValue(), now)) {
+                return false;
+            }
+            if (filteredKeys != null) {
+                filteredKeys.increment();
+            }
+            return true;
+        }));
+    }
+
+    private double pendingDevices() {
+        return current.get().valuesForDevices.size();
+    }
+
+    private int pendingKeys() {
+        Generation generation = current.get();
+        return countKeys(generation.valuesForDevices) + countKeys(generation.aggregatesForDevices);
+    }
+
+    private static int countKeys(Map<String, ? extends Map<String, ?>> valuesForDevices) {
+        int keys = 0;
+        for (Map<String, ?> values : valuesForDevices.values()) {
+            keys += values.size();
+        }
+        return keys;
     }
 
     public void add(String device, String key, Object value) {
         add(device, Map.of(key, value));
     }
+
+    private static final class Generation {
+        private final Map<String, Map<String, Object>> valuesForDevices = new ConcurrentHashMap<>();
+        private final Map<String, Map<String, FeedAggregation.Accumulator>> aggregatesForDevices = new ConcurrentHashMap<>();
+        private final AtomicInteger writers = new AtomicInteger();
+    }
 }
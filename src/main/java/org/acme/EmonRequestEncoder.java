@@ -0,0 +1,203 @@
+package org.acme;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the url-encoded form bodies of emoncms requests straight into bytes, encoded the same way as
+ * {@link java.net.URLEncoder}. The parts that repeat, the node and apikey parameters of a device and
+ * the json names of the feeds, are encoded once and cached. Each thread writes into its own reusable
+ * buffer, only the finished body is copied out.
+ */
+final class EmonRequestEncoder {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OBJECT_START = ascii("%7B");
+    private static final byte[] OBJECT_END = ascii("%7D");
+    private static final byte[] COMMA = ascii("%2C");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] NULL = ascii("null");
+
+    private final ObjectMapper objectMapper;
+    // "&apikey=<apikey>"
+    private final byte[] apikey;
+    // "node=<device>&apikey=<apikey>&fulljson=" by device
+    private final Map<String, byte[]> postPrefixes = new ConcurrentHashMap<>();
+    // "\"<feed>\":" by feed
+    private final Map<String, byte[]> feedNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<Body> bodies = ThreadLocal.withInitial(Body::new);
+
+    EmonRequestEncoder(ObjectMapper objectMapper, String apikey) {
+        this.objectMapper = objectMapper;
+        Body body = new Body();
+        body.write(ascii("&apikey="));
+        body.encode(apikey);
+        this.apikey = body.toByteArray();
+    }
+
+    /**
+     * Body of an /input/post request, {@code node=<device>&apikey=<apikey>&fulljson={"key":value,...}}.
+     */
+    byte[] post(String device, Map<String, ?> values) {
+        Body body = bodies.get();
+        body.reset();
+        body.write(postPrefixes.computeIfAbsent(device, this::postPrefix));
+        body.write(OBJECT_START);
+        boolean first = true;
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            if (!first) {
+                body.write(COMMA);
+            }
+            first = false;
+            body.write(feedNames.computeIfAbsent(entry.getKey(), EmonRequestEncoder::feedName));
+            writeValue(body, entry.getValue());
+        }
+        body.write(OBJECT_END);
+        return body.toByteArray();
+    }
+
+    /**
+     * Body of an /input/bulk request, the given parameters followed by the apikey and the data.
+     */
+    byte[] bulk(Map<String, String> parameters, String data) {
+        Body body = bodies.get();
+        body.reset();
+        parameters.forEach((name, value) -> {
+            body.encode(name);
+            body.write((byte) '=');
+            body.encode(value);
+            body.write((byte) '&');
+        });
+        body.write(apikey, 1, apikey.length - 1);
+        body.write(ascii("&data="));
+        body.encode(data);
+        return body.toByteArray();
+    }
+
+    private byte[] postPrefix(String device) {
+        Body body = new Body();
+        body.write(ascii("node="));
+        body.encode(device);
+        body.write(apikey);
+        body.write(ascii("&fulljson="));
+        return body.toByteArray();
+    }
+
+    private static byte[] feedName(String feed) {
+        Body body = new Body();
+        body.encode("\"" + new String(JsonStringEncoder.getInstance().quoteAsString(feed)) + "\":");
+        return body.toByteArray();
+    }
+
+    private void writeValue(Body body, Object value) {
+        switch (value) {
+            case null -> body.write(NULL);
+            case Integer i -> body.writeLong(i);
+            case Long l -> body.writeLong(l);
+            case Short s -> body.writeLong(s);
+            case Byte b -> body.writeLong(b);
+            // finite doubles only contain digits, '.', '-' and 'E', none need encoding
+            case Double d when Double.isFinite(d) -> body.writeAscii(Double.toString(d));
+            case Boolean b -> body.write(b ? TRUE : FALSE);
+            default -> {
+                try {
+                    body.encode(objectMapper.writeValueAsString(value));
+                } catch (JsonProcessingException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class Body {
+        private byte[] buffer = new byte[512];
+        private int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        void write(byte b) {
+            ensure(1);
+            buffer[length++] = b;
+        }
+
+        void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        void write(byte[] bytes, int offset, int count) {
+            ensure(count);
+            System.arraycopy(bytes, offset, buffer, length, count);
+            length += count;
+        }
+
+        void writeAscii(String value) {
+            ensure(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                buffer[length++] = (byte) value.charAt(i);
+            }
+        }
+
+        void writeLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                writeAscii(Long.toString(value));
+                return;
+            }
+            ensure(20);
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            for (int i = length + digits - 1; i >= length; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+        }
+
+        /**
+         * Writes the value url-encoded as UTF-8, like {@link java.net.URLEncoder}.
+         */
+        void encode(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(bytes.length * 3);
+            for (byte b : bytes) {
+                if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                        || b == '.' || b == '-' || b == '*' || b == '_') {
+                    buffer[length++] = b;
+                } else if (b == ' ') {
+                    buffer[length++] = '+';
+                } else {
+                    buffer[length++] = '%';
+                    buffer[length++] = HEX[(b >> 4) & 0xf];
+                    buffer[length++] = HEX[b & 0xf];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.acme;
+
+import java.util.Map;
+
+/**
+ * Source of values waiting to be posted to emoncms, drained by {@link EmonBulkPoster} on every flush.
+ */
+@FunctionalInterface
+public interface EmonSource {
+    /**
+     * @return the pending values per device, the source no longer holds them afterwards
+     */
+    Map<String, ? extends Map<String, ?>> drain();
+}
@@ -0,0 +1,154 @@
+package org.acme;
+
+import io.micrometer.core.instrument.Counter;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Vertx;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The HTTP connection to emoncms. Connections are kept open between requests and optionally kept
+ * warm while idle, HTTP/2 is negotiated when available and large bulk bodies can be gzipped.
+ * <p>
+ * The JDK client doesn't expose its connection pool, the statistics are taken per request: requests in
+ * flight, responses per negotiated HTTP version and body bytes per content encoding.
+ */
+@ApplicationScoped
+public class EmonTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    private static final String KEEP_ALIVE_H2_PROPERTY = "jdk.httpclient.keepalive.timeout.h2";
+    private static final String POOL_SIZE_PROPERTY = "jdk.httpclient.connectionPoolSize";
+    private final EmoncmsConfig.Transport config;
+    private final Vertx vertx;
+    private final URI keepWarmUri;
+    private final HttpClient httpClient;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<HttpClient.Version, Counter> responses = new EnumMap<>(HttpClient.Version.class);
+    private final Counter identityBytes;
+    private final Counter gzipBytes;
+    private volatile long lastRequest = System.nanoTime();
+
+    public EmonTransport(Vertx vertx, EmoncmsConfig emoncmsConfig, BridgeMetrics metrics) {
+        this.vertx = vertx;
+        this.config = emoncmsConfig.transport();
+        this.keepWarmUri = URI.create(emoncmsConfig.endpoint() + "/describe");
+        // the JDK reads these once for the whole JVM, so they can only be set on the command line
+        LOG.info("HTTP client {}, {}, {}", property(KEEP_ALIVE_PROPERTY), property(KEEP_ALIVE_H2_PROPERTY),
+                property(POOL_SIZE_PROPERTY));
+        this.httpClient = HttpClient.newBuilder()
+                .version(config.version())
+                .connectTimeout(config.connectTimeout())
+                .build();
+        for (HttpClient.Version version : HttpClient.Version.values()) {
+            responses.put(version, metrics.transportResponses(version.name()));
+        }
+        this.identityBytes = metrics.transportBodyBytes("identity");
+        this.gzipBytes = metrics.transportBodyBytes("gzip");
+        metrics.transport(inFlight, AtomicInteger::get);
+    }
+
+    private static String property(String name) {
+        return name + "=" + System.getProperty(name, "JDK default");
+    }
+
+    public void onStart(@Observes StartupEvent startupEvent) {
+        config.keepWarm().ifPresent(interval -> {
+            LOG.info("Keeping the connection to emoncms warm every {}", interval);
+            vertx.setPeriodic(interval.toMillis(), l -> keepWarm(interval));
+        });
+    }
+
+    void onShutdown(@Observes ShutdownEvent event) {
+        httpClient.shutdown();
+    }
+
+    /**
+     * A form post, gzipped when {@code compressible} and at least the configured size.
+     */
+    public HttpRequest post(URI uri, byte[] body, boolean compressible) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .timeout(REQUEST_TIMEOUT);
+        if (compressible && config.gzipMinSize() > 0 && body.length >= config.gzipMinSize()) {
+            byte[] gzipped = gzip(body);
+            gzipBytes.increment(gzipped.length);
+            return builder.header("Content-Encoding", "gzip")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(gzipped))
+                    .build();
+        }
+        identityBytes.increment(body.length);
+        return builder.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    public CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        started();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, e) -> completed(response));
+    }
+
+    public HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        started();
+        HttpResponse<String> response = null;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            return response;
+        } finally {
+            completed(response);
+        }
+    }
+
+    private void started() {
+        inFlight.incrementAndGet();
+        lastRequest = System.nanoTime();
+    }
+
+    private void completed(HttpResponse<?> response) {
+        inFlight.decrementAndGet();
+        if (response != null) {
+            responses.get(response.version()).increment();
+        }
+    }
+
+    private void keepWarm(Duration interval) {
+        if (inFlight.get() > 0 || System.nanoTime() - lastRequest < interval.toNanos()) {
+            return;
+        }
+        LOG.debug("Keeping the connection to emoncms warm");
+        HttpRequest request = HttpRequest.newBuilder(keepWarmUri).timeout(REQUEST_TIMEOUT).GET().build();
+        sendAsync(request).whenComplete((response, e) -> {
+            if (e != null) {
+                LOG.debug("Keep warm request to emoncms failed", e);
+            }
+        });
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,8 +1,16 @@
 package org.acme;
 
 import io.smallrye.config.ConfigMapping;
+import io.smallrye.config.WithDefault;
 
+import java.net.http.HttpClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
 
 @ConfigMapping(prefix = "emoncms")
 public interface EmoncmsConfig {
@@ -12,4 +20,228 @@ public interface EmoncmsConfig {
 
     Optional<Boolean> enabled();
 
-}
\ No newline at end of file
+    /**
+     * Maximum number of requests waiting for an answer of emoncms at the same time.
+     */
+    @WithDefault("4")
+    int maxInFlight();
+
+    /**
+     * How requests wait for emoncms: {@code async} with the non-blocking http client, or
+     * {@code virtual-threads} with one virtual thread per request blocking on the answer.
+     */
+    @WithDefault("async")
+    Execution execution();
+
+    enum Execution {
+        ASYNC,
+        VIRTUAL_THREADS
+    }
+
+    Bulk bulk();
+
+    Outbox outbox();
+
+    Flush flush();
+
+    Transport transport();
+
+    Retry retry();
+
+    CircuitBreaker circuitBreaker();
+
+    /**
+     * How the values of a feed received between two flushes are combined, by feed name. Feeds that are
+     * not listed post their last value. Every aggregation other than last posts as its own input,
+     * suffixed with the aggregation, e.g. {@code power_consumed_mean}.
+     */
+    Map<String, List<Aggregation>> aggregation();
+
+    /**
+     * Rules that skip values hardly different from the value last sent, by feed name as posted, so
+     * including the aggregation suffix.
+     */
+    Map<String, Filter> filter();
+
+    interface Filter {
+        /**
+         * Skip values that differ less than this from the value last sent.
+         */
+        OptionalDouble absoluteDeadband();
+
+        /**
+         * Skip values that differ less than this fraction of the value last sent.
+         */
+        OptionalDouble relativeDeadband();
+
+        /**
+         * Skip values equal to the value last sent.
+         */
+        @WithDefault("false")
+        boolean suppressUnchanged();
+
+        /**
+         * A value is sent anyway when nothing was sent for the feed for this long.
+         */
+        @WithDefault("15m")
+        Duration maxSilence();
+    }
+
+    enum Aggregation {
+        LAST,
+        MEAN,
+        MIN,
+        MAX,
+        SUM,
+        COUNT
+    }
+
+    interface Bulk {
+        /**
+         * Post the values of all sources together through /input/bulk instead of one request per device.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        @WithDefault("10s")
+        Duration interval();
+
+        /**
+         * Maximum size in bytes of the url-encoded data of a single bulk request, larger batches are split.
+         */
+        @WithDefault("65536")
+        int maxRequestSize();
+    }
+
+    interface Transport {
+        /**
+         * HTTP version tried first, with http-2 the client falls back to HTTP/1.1 when emoncms or the
+         * proxy in front of it doesn't speak HTTP/2.
+         */
+        @WithDefault("http-2")
+        HttpClient.Version version();
+
+        @WithDefault("30s")
+        Duration connectTimeout();
+
+        /**
+         * When set, a light request is sent to emoncms after being idle this long, so a connection is
+         * open when the next flush comes. Should be below the keep alive of emoncms and its proxy.
+         */
+        Optional<Duration> keepWarm();
+
+        /**
+         * Bulk bodies of at least this many bytes are sent gzipped, 0 never. Only enable when the
+         * server or its proxy decompresses request bodies.
+         */
+        @WithDefault("0")
+        int gzipMinSize();
+    }
+
+    interface Retry {
+        /**
+         * Attempts of a request that failed with a timeout, connection error or 5xx, 1 never retries.
+         */
+        @WithDefault("3")
+        int maxAttempts();
+
+        /**
+         * Wait before the first retry, doubled for every next one.
+         */
+        @WithDefault("1s")
+        Duration initialBackoff();
+
+        @WithDefault("30s")
+        Duration maxBackoff();
+
+        /**
+         * Every wait is randomly stretched or shortened by up to this fraction.
+         */
+        @WithDefault("0.2")
+        double jitter();
+    }
+
+    interface CircuitBreaker {
+        /**
+         * Consecutive failed requests after which no more requests are sent, 0 never stops sending.
+         */
+        @WithDefault("5")
+        int failureThreshold();
+
+        /**
+         * Time without requests before a single probe request tests whether emoncms recovered.
+         */
+        @WithDefault("30s")
+        Duration openDuration();
+    }
+
+    interface Flush {
+        /**
+         * Time between two flushes of a source while emoncms answers fast.
+         */
+        @WithDefault("10s")
+        Duration interval();
+
+        /**
+         * A source is flushed early once this many values are pending, 0 disables it.
+         */
+        @WithDefault("0")
+        int maxPending();
+
+        /**
+         * Requests slower than this make the flushes back off, as do failed requests.
+         */
+        @WithDefault("2s")
+        Duration slowResponse();
+
+        /**
+         * Upper bound of the interval while backing off.
+         */
+        @WithDefault("5m")
+        Duration maxInterval();
+
+        /**
+         * Every interval is randomly stretched or shortened by up to this fraction, so the sources
+         * don't all flush at the same moment.
+         */
+        @WithDefault("0.1")
+        double jitter();
+
+        /**
+         * Overrides of the interval and pending threshold by source name, e.g. {@code qbus} or {@code bulk}.
+         */
+        Map<String, Source> sources();
+
+        interface Source {
+            Optional<Duration> interval();
+
+            OptionalInt maxPending();
+        }
+    }
+
+    interface Outbox {
+        /**
+         * Keep values that could not be posted in a memory-mapped file and replay them later.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        @WithDefault("emoncms-outbox.dat")
+        String file();
+
+        /**
+         * Size of the outbox file in bytes, the oldest samples are dropped when it is full.
+         */
+        @WithDefault("8388608")
+        int size();
+
+        @WithDefault("30s")
+        Duration replayInterval();
+
+        /**
+         * Maximum number of samples replayed in one go.
+         */
+        @WithDefault("500")
+        int batchSize();
+    }
+}
@@ -0,0 +1,28 @@
+package org.acme;
+
+public class EmoncmsException extends RuntimeException {
+    // the same request may succeed later, e.g. after a timeout or a 5xx
+    private final boolean retryable;
+
+    public EmoncmsException(String message) {
+        this(message, false);
+    }
+
+    public EmoncmsException(String message, Throwable cause) {
+        this(message, cause, false);
+    }
+
+    public EmoncmsException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public EmoncmsException(String message, Throwable cause, boolean retryable) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
+    public boolean retryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,67 @@
+package org.acme;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The aggregations configured for a feed, with the input name each of them posts as.
+ */
+final class FeedAggregation {
+    private final EmoncmsConfig.Aggregation[] aggregations;
+    private final String[] inputs;
+
+    FeedAggregation(String feed, List<EmoncmsConfig.Aggregation> aggregations) {
+        this.aggregations = aggregations.stream().distinct().toArray(EmoncmsConfig.Aggregation[]::new);
+        this.inputs = new String[this.aggregations.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = this.aggregations[i] == EmoncmsConfig.Aggregation.LAST
+                    ? feed
+                    : feed + "_" + this.aggregations[i].name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    Accumulator newAccumulator() {
+        return new Accumulator(this);
+    }
+
+    /**
+     * Running aggregate of the numeric values of a feed, no values are kept.
+     */
+    static final class Accumulator {
+        private final FeedAggregation aggregation;
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double last;
+
+        private Accumulator(FeedAggregation aggregation) {
+            this.aggregation = aggregation;
+        }
+
+        synchronized void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            last = value;
+        }
+
+        synchronized void writeTo(Map<String, Object> values) {
+            if (count == 0) {
+                return;
+            }
+            for (int i = 0; i < aggregation.aggregations.length; i++) {
+                values.put(aggregation.inputs[i], switch (aggregation.aggregations[i]) {
+                    case LAST -> last;
+                    case MEAN -> sum / count;
+                    case MIN -> min;
+                    case MAX -> max;
+                    case SUM -> sum;
+                    case COUNT -> count;
+                });
+            }
+        }
+    }
+}
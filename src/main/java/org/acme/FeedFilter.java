@@ -0,0 +1,56 @@
+package org.acme;
+
+/**
+ * The rules deciding whether a new value of a feed is worth sending, compared to the value last sent
+ * for that feed. A value is always sent when the feed has been silent for the maximum silence.
+ */
+final class FeedFilter {
+    // NaN when not configured
+    private final double absoluteDeadband;
+    private final double relativeDeadband;
+    private final boolean suppressUnchanged;
+    private final long maxSilenceNanos;
+
+    FeedFilter(EmoncmsConfig.Filter config) {
+        this(config.absoluteDeadband().orElse(Double.NaN), config.relativeDeadband().orElse(Double.NaN),
+                config.suppressUnchanged(), config.maxSilence().toNanos());
+    }
+
+    FeedFilter(double absoluteDeadband, double relativeDeadband, boolean suppressUnchanged, long maxSilenceNanos) {
+        this.absoluteDeadband = absoluteDeadband;
+        this.relativeDeadband = relativeDeadband;
+        this.suppressUnchanged = suppressUnchanged;
+        this.maxSilenceNanos = maxSilenceNanos;
+    }
+
+    /**
+     * Whether to send the value, updating the last sent value when it is.
+     */
+    boolean accept(LastSent last, double value, long nowNanos) {
+        if (!last.sent || nowNanos - last.time >= maxSilenceNanos || !suppressed(last.value, value)) {
+            last.sent = true;
+            last.value = value;
+            last.time = nowNanos;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean suppressed(double lastValue, double value) {
+        double delta = Math.abs(value - lastValue);
+        if (suppressUnchanged && Double.compare(value, lastValue) == 0) {
+            return true;
+        }
+        // comparisons with NaN are false, unconfigured deadbands never suppress
+        return delta < absoluteDeadband || delta < relativeDeadband * Math.abs(lastValue);
+    }
+
+    /**
+     * Value last sent of a feed of one device.
+     */
+    static final class LastSent {
+        private boolean sent;
+        private double value;
+        private long time;
+    }
+}
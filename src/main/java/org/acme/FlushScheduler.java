@@ -0,0 +1,159 @@
+package org.acme;
+
+import io.vertx.core.Vertx;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Decides when the sources flush their values to emoncms. A source flushes when its interval has
+ * passed or when it has enough values pending, whichever comes first. While emoncms answers slowly
+ * or not at all, the intervals of all sources back off, they recover once it answers fast again.
+ */
+@ApplicationScoped
+public class FlushScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final long PENDING_CHECK_INTERVAL = Duration.ofSeconds(1).toMillis();
+    // 64x, the intervals themselves are capped by the max interval
+    private static final int MAX_BACKOFF_SHIFT = 6;
+    private static final long SLOW = 1L << 32;
+    private final Vertx vertx;
+    private final EmoncmsConfig.Flush config;
+    private final List<Source> sources = new CopyOnWriteArrayList<>();
+    // multiplier of the configured intervals as a power of two, 0 while emoncms is healthy
+    private final AtomicInteger backoffShift = new AtomicInteger();
+    // requests completed since the last adjustment, slow or failed ones in the high half
+    private final AtomicLong completed = new AtomicLong();
+    private long pendingCheckTimer = -1;
+
+    public FlushScheduler(Vertx vertx, EmoncmsConfig emoncmsConfig) {
+        this.vertx = vertx;
+        this.config = emoncmsConfig.flush();
+    }
+
+    /**
+     * Flushes a source without a pending threshold.
+     */
+    public void register(String name, Duration interval, Runnable flush) {
+        register(name, interval, null, flush);
+    }
+
+    /**
+     * Starts flushing a source, the interval and pending threshold can be overridden per source name.
+     *
+     * @param interval interval used unless configured for this source
+     * @param pending  number of values waiting in the source, null when it has no threshold
+     */
+    public synchronized void register(String name, Duration interval, IntSupplier pending, Runnable flush) {
+        String key = name.toLowerCase(Locale.ROOT);
+        EmoncmsConfig.Flush.Source override = config.sources().get(key);
+        long intervalMillis = (override != null ? override.interval().orElse(interval) : interval).toMillis();
+        int maxPending = override != null ? override.maxPending().orElse(config.maxPending()) : config.maxPending();
+        Source source = new Source(name, intervalMillis, maxPending > 0 ? pending : null, maxPending, flush);
+        LOG.info("Flushing {} every {} ms{}", name, intervalMillis,
+                source.pending != null ? " or at " + maxPending + " pending values" : "");
+        sources.add(source);
+        source.schedule();
+        if (source.pending != null && pendingCheckTimer < 0) {
+            pendingCheckTimer = vertx.setPeriodic(PENDING_CHECK_INTERVAL, l -> checkPending());
+        }
+    }
+
+    /**
+     * Feedback of every request to emoncms, applied once per flush by {@link #adjustBackoff()}.
+     */
+    public void requestCompleted(long latencyNanos, boolean failed) {
+        completed.addAndGet(failed || latencyNanos > config.slowResponse().toNanos() ? SLOW : 1);
+    }
+
+    /**
+     * Doubles the intervals when any request since the previous adjustment was slow or failed, halves
+     * them again until they are back at the configured value when all were fast.
+     */
+    void adjustBackoff() {
+        long outcomes = completed.getAndSet(0);
+        if (outcomes == 0) {
+            return;
+        }
+        long slowCount = outcomes >>> 32;
+        boolean slow = slowCount > 0;
+        int previous = backoffShift.getAndUpdate(shift -> slow
+                ? Math.min(shift + 1, MAX_BACKOFF_SHIFT) : Math.max(shift - 1, 0));
+        int next = slow ? Math.min(previous + 1, MAX_BACKOFF_SHIFT) : Math.max(previous - 1, 0);
+        if (next != previous) {
+            LOG.debug("emoncms {} ({} of {} requests slow or failed), flush intervals now {}x",
+                    slow ? "slow" : "recovering", slowCount, slowCount + (outcomes & 0xffffffffL), 1 << next);
+        }
+    }
+
+    /**
+     * Current multiplier of the configured intervals.
+     */
+    int backoff() {
+        return 1 << backoffShift.get();
+    }
+
+    private void checkPending() {
+        for (Source source : sources) {
+            source.checkPending();
+        }
+    }
+
+    private final class Source {
+        private final String name;
+        private final long interval;
+        private final IntSupplier pending;
+        private final int maxPending;
+        private final Runnable flush;
+        private long timer = -1;
+
+        private Source(String name, long interval, IntSupplier pending, int maxPending, Runnable flush) {
+            this.name = name;
+            this.interval = interval;
+            this.pending = pending;
+            this.maxPending = maxPending;
+            this.flush = flush;
+        }
+
+        private synchronized void schedule() {
+            long delay = Math.min(interval * backoff(), Math.max(interval, config.maxInterval().toMillis()));
+            double jitter = config.jitter() * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+            timer = vertx.setTimer(Math.max(1, (long) (delay * (1 + jitter))), this::onTimer);
+        }
+
+        private synchronized void onTimer(long id) {
+            // a flush on the pending threshold may have replaced this timer meanwhile
+            if (id == timer) {
+                flush();
+            }
+        }
+
+        private synchronized void checkPending() {
+            if (pending != null && pending.getAsInt() >= maxPending) {
+                LOG.debug("[{}] Pending threshold reached", name);
+                vertx.cancelTimer(timer);
+                flush();
+            }
+        }
+
+        private synchronized void flush() {
+            try {
+                flush.run();
+            } catch (RuntimeException e) {
+                LOG.warn("[{}] Flush failed", name, e);
+            }
+            adjustBackoff();
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.acme;
+
+import io.quarkus.runtime.ShutdownEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.acme.data.HistorySample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the recent numeric values of every device and feed in a {@link HistoryRing}, so they can be
+ * queried locally instead of from emoncms. Rings of earlier runs are opened again at startup.
+ */
+@ApplicationScoped
+public class History {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String SUFFIX = ".ring";
+    private final HistoryConfig historyConfig;
+    private final Map<String, Map<String, HistoryRing>> rings = new ConcurrentHashMap<>();
+    // feeds whose ring could not be opened, by device, so they aren't retried on every sample
+    private final Map<String, Set<String>> unavailable = new ConcurrentHashMap<>();
+
+    public History(HistoryConfig historyConfig) {
+        this.historyConfig = historyConfig;
+        if (historyConfig.enabled()) {
+            open();
+        }
+    }
+
+    private void open() {
+        Path directory = Path.of(historyConfig.directory());
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path deviceDirectory : files.filter(Files::isDirectory).toList()) {
+                    String device = decode(deviceDirectory.getFileName().toString());
+                    try (Stream<Path> feeds = Files.list(deviceDirectory)) {
+                        feeds.map(file -> file.getFileName().toString())
+                                .filter(name -> name.endsWith(SUFFIX))
+                                .forEach(name -> ring(device, decode(name.substring(0, name.length() - SUFFIX.length()))));
+                    }
+                }
+            }
+            LOG.info("History in {} opened with {} devices", directory, rings.size());
+        } catch (IOException e) {
+            LOG.warn("Could not open history in {}", directory, e);
+        }
+    }
+
+    void onShutdown(@Observes ShutdownEvent event) {
+        rings.values().forEach(feeds -> feeds.values().forEach(ring -> {
+            try {
+                ring.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close history ring", e);
+            }
+        }));
+    }
+
+    public boolean enabled() {
+        return historyConfig.enabled();
+    }
+
+    public void record(String device, Map<String, ?> values) {
+        if (!historyConfig.enabled()) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        values.forEach((feed, value) -> {
+            if (value instanceof Number number) {
+                HistoryRing ring = ring(device, feed);
+                if (ring != null) {
+                    ring.append(time, number.doubleValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the feeds with history, by device
+     */
+    public Map<String, List<String>> feeds() {
+        Map<String, List<String>> feeds = new TreeMap<>();
+        rings.forEach((device, rings) -> feeds.put(device, rings.keySet().stream().sorted().toList()));
+        return feeds;
+    }
+
+    /**
+     * Samples of a feed within the retention, see {@link HistoryRing#query}.
+     *
+     * @return null when there is no history for the feed
+     */
+    public List<HistorySample> query(String device, String feed, long from, long to, long step) {
+        Map<String, HistoryRing> feeds = rings.get(device);
+        HistoryRing ring = feeds == null ? null : feeds.get(feed);
+        if (ring == null) {
+            return null;
+        }
+        List<HistorySample> samples = new ArrayList<>();
+        long oldest = System.currentTimeMillis() - historyConfig.retention().toMillis();
+        ring.query(Math.max(from, oldest), to, step, (time, value) -> samples.add(new HistorySample(time, value)));
+        return samples;
+    }
+
+    private HistoryRing ring(String device, String feed) {
+        Set<String> failed = unavailable.get(device);
+        if (failed != null && failed.contains(feed)) {
+            return null;
+        }
+        return rings.computeIfAbsent(device, d -> new ConcurrentHashMap<>()).computeIfAbsent(feed, f -> {
+            Path file = Path.of(historyConfig.directory(), encode(device), encode(feed) + SUFFIX);
+            try {
+                Files.createDirectories(file.getParent());
+                return new HistoryRing(file, historyConfig.samplesPerFeed());
+            } catch (IOException e) {
+                LOG.warn("Could not open history ring {}, not keeping history of {} {}", file, device, feed, e);
+                unavailable.computeIfAbsent(device, d -> ConcurrentHashMap.newKeySet()).add(feed);
+                return null;
+            }
+        });
+    }
+
+    private static String encode(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String name) {
+        return URLDecoder.decode(name, StandardCharsets.UTF_8);
+    }
+}
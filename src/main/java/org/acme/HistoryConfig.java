@@ -0,0 +1,34 @@
+package org.acme;
+
+import io.smallrye.config.ConfigMapping;
+import io.smallrye.config.WithDefault;
+
+import java.time.Duration;
+
+@ConfigMapping(prefix = "history")
+public interface HistoryConfig {
+    /**
+     * Keep the recent samples of every feed locally, queryable on /history.
+     */
+    @WithDefault("false")
+    boolean enabled();
+
+    /**
+     * Directory with one memory-mapped ring file per device and feed.
+     */
+    @WithDefault("history")
+    String directory();
+
+    /**
+     * Samples older than this are not returned.
+     */
+    @WithDefault("6h")
+    Duration retention();
+
+    /**
+     * Number of samples kept per feed, the oldest are overwritten. 21600 holds 6 hours of one sample
+     * per second.
+     */
+    @WithDefault("21600")
+    int samplesPerFeed();
+}
@@ -0,0 +1,50 @@
+package org.acme;
+
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import org.acme.data.HistorySample;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recent samples from the local {@link History}. Times are epoch milliseconds.
+ */
+@Path("/history")
+@Produces(MediaType.APPLICATION_JSON)
+public class HistoryResource {
+    private final History history;
+
+    public HistoryResource(History history) {
+        this.history = history;
+    }
+
+    @GET
+    public Map<String, List<String>> feeds() {
+        return history.feeds();
+    }
+
+    /**
+     * @param from first time to return, defaults to the start of the retention
+     * @param to   time up to which samples are returned, exclusive
+     * @param step average the samples over steps of this many milliseconds, 0 returns every sample
+     */
+    @GET
+    @Path("/{device}/{feed}")
+    public List<HistorySample> samples(@PathParam("device") String device, @PathParam("feed") String feed,
+                                       @QueryParam("from") @DefaultValue("0") long from,
+                                       @QueryParam("to") @DefaultValue("" + Long.MAX_VALUE) long to,
+                                       @QueryParam("step") @DefaultValue("0") long step) {
+        List<HistorySample> samples = history.query(device, feed, from, to, step);
+        if (samples == null) {
+            throw new NotFoundException("No history for " + device + "/" + feed);
+        }
+        return samples;
+    }
+}
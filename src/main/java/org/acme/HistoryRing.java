@@ -0,0 +1,124 @@
+package org.acme;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed number of {@code (time, value)} samples of one feed in a memory-mapped file, the newest sample
+ * overwrites the oldest. Samples are expected in time order, which lets queries find the start of a
+ * range with a binary search.
+ * <p>
+ * Layout: a header {@code magic, capacity, count} followed by {@code capacity} slots of
+ * {@code time, value}. The count is the number of samples ever written, slot {@code count % capacity}
+ * is written next.
+ */
+public class HistoryRing implements AutoCloseable {
+    private static final int MAGIC = 0x454d4831;
+    private static final int HEADER_SIZE = 16;
+    private static final int SAMPLE_SIZE = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long count;
+
+    public interface Visitor {
+        void accept(long time, double value);
+    }
+
+    public HistoryRing(Path file, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A history ring needs room for at least one sample");
+        }
+        this.capacity = capacity;
+        long size = HEADER_SIZE + (long) capacity * SAMPLE_SIZE;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean existing = channel.size() == size;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (existing && buffer.getInt(0) == MAGIC && buffer.getInt(4) == capacity) {
+            count = buffer.getLong(8);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, capacity);
+            buffer.putLong(8, 0);
+            count = 0;
+        }
+    }
+
+    public synchronized void append(long time, double value) {
+        int position = position(count);
+        buffer.putLong(position, time);
+        buffer.putDouble(position + 8, value);
+        count++;
+        buffer.putLong(8, count);
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /**
+     * Visits the samples with {@code from <= time < to}, oldest first. With a positive {@code step} the
+     * samples are averaged per step, visited with the start of their step as time.
+     */
+    public synchronized void query(long from, long to, long step, Visitor visitor) {
+        long oldest = Math.max(0, count - capacity);
+        long low = oldest;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (time(middle) < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        long bucket = 0;
+        double sum = 0;
+        int samples = 0;
+        for (long i = low; i < count; i++) {
+            long time = time(i);
+            if (time >= to) {
+                break;
+            }
+            double value = buffer.getDouble(position(i) + 8);
+            if (step <= 0) {
+                visitor.accept(time, value);
+                continue;
+            }
+            long start = time - Math.floorMod(time, step);
+            if (samples > 0 && start != bucket) {
+                visitor.accept(bucket, sum / samples);
+                sum = 0;
+                samples = 0;
+            }
+            bucket = start;
+            sum += value;
+            samples++;
+        }
+        if (samples > 0) {
+            visitor.accept(bucket, sum / samples);
+        }
+    }
+
+    private long time(long index) {
+        return buffer.getLong(position(index));
+    }
+
+    private int position(long index) {
+        return HEADER_SIZE + (int) (index % capacity) * SAMPLE_SIZE;
+    }
+
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
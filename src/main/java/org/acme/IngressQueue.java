@@ -0,0 +1,156 @@
+package org.acme;
+
+import io.vertx.mqtt.messages.MqttPublishMessage;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded queue of the messages waiting for the subscribers, by number of messages and by their size.
+ * When conflating and the queue is full, a message replaces the latest waiting message of the same
+ * topic and takes its place in the queue. Below the bounds every message is kept, so the aggregations
+ * see all of them.
+ */
+final class IngressQueue {
+    private final int capacity;
+    private final long maxBytes;
+    private final MqttConfig.Overflow overflow;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    // latest waiting entry by topic, only when conflating
+    private final Map<String, Entry> latest;
+    private long bytes;
+    private long conflated;
+
+    private static final class Entry {
+        private MqttPublishMessage msg;
+        private long bytes;
+
+        private Entry(MqttPublishMessage msg) {
+            this.msg = msg;
+            this.bytes = bytes(msg);
+        }
+    }
+
+    IngressQueue(int capacity, long maxBytes, MqttConfig.Overflow overflow) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.overflow = overflow;
+        this.latest = overflow == MqttConfig.Overflow.CONFLATE ? new HashMap<>() : null;
+    }
+
+    /**
+     * Heap a queued message takes, roughly: its payload and topic.
+     */
+    static long bytes(MqttPublishMessage msg) {
+        return msg.payload().length() + 2L * msg.topicName().length();
+    }
+
+    /**
+     * Queues a message.
+     *
+     * @return the number of messages dropped to do so, replaced messages are counted by
+     * {@link #conflated()} instead
+     */
+    synchronized int offer(MqttPublishMessage msg) {
+        Entry entry = new Entry(msg);
+        if (!full(entry.bytes)) {
+            add(entry);
+            return 0;
+        }
+        switch (overflow) {
+            case DROP_NEWEST -> {
+                return 1;
+            }
+            case DROP_OLDEST -> {
+                int dropped = dropOldest(entry.bytes, null);
+                add(entry);
+                return dropped;
+            }
+            case CONFLATE -> {
+                Entry waiting = latest.get(msg.topicName());
+                if (waiting == null) {
+                    int dropped = dropOldest(entry.bytes, null);
+                    add(entry);
+                    return dropped;
+                }
+                bytes += entry.bytes - waiting.bytes;
+                waiting.msg = msg;
+                waiting.bytes = entry.bytes;
+                conflated++;
+                // a larger payload may not fit anymore
+                return dropOldest(0, waiting);
+            }
+            default -> throw new IllegalStateException("Unknown overflow policy " + overflow);
+        }
+    }
+
+    private boolean full(long size) {
+        return !queue.isEmpty() && (queue.size() >= capacity || bytes + size > maxBytes);
+    }
+
+    private void add(Entry entry) {
+        queue.add(entry);
+        bytes += entry.bytes;
+        if (latest != null) {
+            latest.put(entry.msg.topicName(), entry);
+        }
+    }
+
+    /**
+     * Drops the oldest messages until a message of the given size fits, or when keeping a replaced
+     * message until the others fit next to it.
+     */
+    private int dropOldest(long size, Entry keep) {
+        int dropped = 0;
+        Iterator<Entry> oldest = queue.iterator();
+        while (oldest.hasNext() && (keep == null ? full(size) : bytes > maxBytes)) {
+            Entry entry = oldest.next();
+            if (entry == keep) {
+                continue;
+            }
+            oldest.remove();
+            removed(entry);
+            dropped++;
+        }
+        return dropped;
+    }
+
+    private void removed(Entry entry) {
+        bytes -= entry.bytes;
+        if (latest != null) {
+            latest.remove(entry.msg.topicName(), entry);
+        }
+    }
+
+    /**
+     * Moves up to {@code max} messages, oldest first, to {@code batch}.
+     */
+    synchronized void drainTo(List<MqttPublishMessage> batch, int max) {
+        for (int i = 0; i < max && !queue.isEmpty(); i++) {
+            Entry entry = queue.poll();
+            removed(entry);
+            batch.add(entry.msg);
+        }
+    }
+
+    synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * Bytes of the waiting messages, as counted against the maximum.
+     */
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Messages replaced by a newer one of the same topic since the queue was created.
+     */
+    synchronized long conflated() {
+        return conflated;
+    }
+}
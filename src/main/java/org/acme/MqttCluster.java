@@ -0,0 +1,183 @@
+package org.acme;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClientOptions;
+import io.vertx.mqtt.messages.MqttPublishMessage;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Membership of the nodes running the bridge together. Every node announces itself with a retained
+ * message on {@code <prefix>/members/<node>}, which its will clears when it goes away, and owns the
+ * devices the consistent hash ring of all announced nodes gives it. Messages of other devices are
+ * forwarded to their owner on {@code <prefix>/forward/<owner>/<topic>}.
+ */
+@ApplicationScoped
+public class MqttCluster {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final long JOIN_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private final Vertx vertx;
+    private final MqttConfig mqttConfig;
+    private final MqttConfig.Cluster config;
+    private final BridgeMetrics metrics;
+    private final String nodeId;
+    private final String membersPrefix;
+    private final String forwardPrefix;
+    // only changed on the event loop of the cluster connection
+    private final Set<String> members = new TreeSet<>();
+    private volatile ConsistentHashRing ring;
+    private volatile int memberCount = 1;
+    private final Promise<Void> joined = Promise.promise();
+    private MqttConnection connection;
+    private String deployment;
+
+    public MqttCluster(Vertx vertx, MqttConfig mqttConfig, BridgeMetrics metrics) {
+        this.vertx = vertx;
+        this.mqttConfig = mqttConfig;
+        this.config = mqttConfig.cluster();
+        this.metrics = metrics;
+        this.nodeId = config.nodeId().orElseGet(() -> UUID.randomUUID().toString().substring(0, 8));
+        this.membersPrefix = config.topicPrefix() + "/members/";
+        this.forwardPrefix = config.topicPrefix() + "/forward/";
+        members.add(nodeId);
+        ring = new ConsistentHashRing(members, config.virtualNodes());
+    }
+
+    public boolean enabled() {
+        return config.enabled();
+    }
+
+    /**
+     * Whether the data connections subscribe through the shared subscription group.
+     */
+    public boolean shared() {
+        return config.shared();
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Number of nodes in the cluster, including this one.
+     */
+    int members() {
+        return memberCount;
+    }
+
+    /**
+     * Node that handles the messages of a device.
+     */
+    public String owner(String deviceKey) {
+        return ring.owner(deviceKey);
+    }
+
+    /**
+     * Joins the cluster, the messages other nodes forward to this one go to the handler. Completes once
+     * this node got its own announcement back: the broker sends the retained announcements of the other
+     * nodes before it, so from then on the owners are known. Until then this node would consider itself
+     * the owner of every device, and handle the retained messages of devices it doesn't own.
+     */
+    public Future<Void> start(Handler<MqttPublishMessage> forwarded) {
+        LOG.info("Joining the cluster as {}", nodeId);
+        if (config.shared()) {
+            LOG.warn("Subscribing through a shared group, retained messages like the Qbus outputs are not received");
+        }
+        metrics.clusterMembers(this, MqttCluster::members);
+        MqttClientOptions options = new MqttClientOptions()
+                .setClientId("mqtt-emoncms-" + nodeId)
+                .setWillFlag(true)
+                .setWillTopic(membersPrefix + nodeId)
+                .setWillMessageBytes(Buffer.buffer())
+                .setWillQoS(MqttQoS.AT_LEAST_ONCE.value())
+                .setWillRetain(true);
+        connection = new MqttConnection("cluster", mqttConfig, options,
+                List.of(membersPrefix + "+", forwardPrefix + nodeId + "/#"),
+                msg -> handleMsg(msg, forwarded), this::announce);
+        vertx.deployVerticle(connection)
+                .onSuccess(id -> deployment = id)
+                .onFailure(e -> LOG.warn("Could not deploy the cluster connection", e));
+        vertx.setTimer(JOIN_TIMEOUT, l -> {
+            if (joined.tryComplete()) {
+                LOG.warn("No announcement back from the cluster, continuing as {} of {} members", nodeId,
+                        memberCount);
+            }
+        });
+        return joined.future();
+    }
+
+    /**
+     * Leaves the cluster, the other nodes take over the devices of this one right away.
+     */
+    public void stop() {
+        if (connection == null) {
+            return;
+        }
+        LOG.info("Leaving the cluster");
+        try {
+            connection.publish(membersPrefix + nodeId, Buffer.buffer(), MqttQoS.AT_LEAST_ONCE, true)
+                    .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.warn("Could not announce leaving the cluster", e);
+        }
+        if (deployment != null) {
+            vertx.undeploy(deployment);
+        }
+    }
+
+    /**
+     * Sends a message to the node owning its device.
+     */
+    public void forward(String owner, MqttPublishMessage msg) {
+        metrics.forwarded();
+        connection.publish(forwardPrefix + owner + "/" + msg.topicName(), msg.payload(), MqttQoS.AT_MOST_ONCE, false)
+                .onFailure(e -> LOG.debug("Could not forward {} to {}", msg.topicName(), owner, e));
+    }
+
+    private void announce() {
+        connection.publish(membersPrefix + nodeId, Buffer.buffer(nodeId), MqttQoS.AT_LEAST_ONCE, true)
+                .onFailure(e -> LOG.warn("Could not announce {} to the cluster", nodeId, e));
+    }
+
+    private void handleMsg(MqttPublishMessage msg, Handler<MqttPublishMessage> forwarded) {
+        String topic = msg.topicName();
+        if (topic.startsWith(membersPrefix)) {
+            String member = topic.substring(membersPrefix.length());
+            boolean changed = msg.payload().length() == 0
+                    ? !member.equals(nodeId) && members.remove(member)
+                    : members.add(member);
+            if (changed) {
+                ring = new ConsistentHashRing(members, config.virtualNodes());
+                memberCount = members.size();
+                LOG.info("Cluster members: {}", members);
+            }
+            if (member.equals(nodeId) && msg.payload().length() != 0) {
+                joined.tryComplete();
+            }
+            return;
+        }
+        if (topic.startsWith(forwardPrefix)) {
+            // <prefix>/forward/<node>/<topic>
+            String original = topic.substring(forwardPrefix.length() + nodeId.length() + 1);
+            forwarded.handle(MqttPublishMessage.create(msg.messageId(), msg.qosLevel(), msg.isDup(), false,
+                    original, ScalarPayloads.byteBuf(msg.payload()), msg.properties()));
+        }
+    }
+}
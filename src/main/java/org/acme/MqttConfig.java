@@ -1,6 +1,9 @@
 package org.acme;
 
 import io.smallrye.config.ConfigMapping;
+import io.smallrye.config.WithDefault;
+
+import java.util.Optional;
 
 @ConfigMapping(prefix = "mqtt")
 public interface MqttConfig {
@@ -10,4 +13,132 @@ public interface MqttConfig {
 
     boolean enabled();
 
-}
\ No newline at end of file
+    /**
+     * Number of connections to the broker, each on its own event loop with its own ingress queue.
+     */
+    @WithDefault("1")
+    int connections();
+
+    /**
+     * How the subscriptions are spread over the connections.
+     */
+    @WithDefault("filters")
+    Partitioning partitioning();
+
+    /**
+     * Group of the shared subscriptions when partitioning is {@code shared} or in a cluster.
+     */
+    @WithDefault("mqtt-emoncms")
+    String sharedGroup();
+
+    /**
+     * The subscribers subscribe to the exact topics they map, topics that only differ in one level are
+     * collapsed into a single {@code +} filter once there are more than this many, 0 never collapses.
+     */
+    @WithDefault("16")
+    int collapseAbove();
+
+    Ingress ingress();
+
+    Cluster cluster();
+
+    enum Partitioning {
+        /**
+         * Every subscription filter on one of the connections, messages of a topic stay in order.
+         */
+        FILTERS,
+        /**
+         * Every filter on all connections as a {@code $share/<group>/} subscription, the broker spreads
+         * the messages. Needs broker support, messages of a topic may be handled out of order.
+         */
+        SHARED
+    }
+
+    interface Cluster {
+        /**
+         * Run as one of several nodes, every device is handled by exactly one node, picked by consistent
+         * hashing of its key over the nodes that announced themselves.
+         */
+        @WithDefault("false")
+        boolean enabled();
+
+        /**
+         * Name of this node, random when not set.
+         */
+        Optional<String> nodeId();
+
+        /**
+         * Topic prefix of the membership announcements and the forwarded messages.
+         */
+        @WithDefault("mqtt-emoncms/cluster")
+        String topicPrefix();
+
+        /**
+         * Subscribe through the shared subscription group, a node forwards the messages of devices it
+         * doesn't own to their owner. Brokers don't send retained messages to shared subscriptions, so
+         * sources that only publish retained, like the Qbus outputs, never arrive in this mode. By
+         * default every node receives all messages and skips those of devices it doesn't own.
+         */
+        @WithDefault("false")
+        boolean shared();
+
+        /**
+         * Points of every node on the hash ring, more points spread the devices more evenly.
+         */
+        @WithDefault("64")
+        int virtualNodes();
+    }
+
+    interface Ingress {
+        /**
+         * Hand incoming messages to the subscribers on a separate thread through a bounded queue,
+         * instead of on the event loop of the MQTT connection.
+         */
+        @WithDefault("true")
+        boolean enabled();
+
+        /**
+         * Maximum number of messages waiting for the subscribers.
+         */
+        @WithDefault("10000")
+        int capacity();
+
+        /**
+         * Maximum bytes of the messages waiting for the subscribers, per connection. Alfen payloads are
+         * about 4 KB and the Qbus info about 6 KB, so the number of messages alone doesn't bound the heap.
+         * The default fits a small heap: a larger queue rides out longer stalls of the subscribers, at
+         * the cost of heap.
+         */
+        @WithDefault("1048576")
+        long maxBytes();
+
+        /**
+         * What happens to a message that arrives while the queue is full, by number or by bytes.
+         */
+        @WithDefault("drop-oldest")
+        Overflow overflow();
+
+        /**
+         * Maximum number of messages taken from the queue in one go.
+         */
+        @WithDefault("256")
+        int batchSize();
+    }
+
+    enum Overflow {
+        /**
+         * Drop the oldest waiting message to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the message that arrives.
+         */
+        DROP_NEWEST,
+        /**
+         * Once the queue is full, a message replaces the waiting message of its topic, or drops the oldest
+         * waiting message when its topic isn't waiting. Below that every message is kept.
+         */
+        CONFLATE
+    }
+
+}
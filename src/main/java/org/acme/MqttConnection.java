@@ -0,0 +1,146 @@
+package org.acme;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClient;
+import io.vertx.mqtt.MqttClientOptions;
+import io.vertx.mqtt.messages.MqttPublishMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * One connection to the broker with its own subscriptions. Deployed as a verticle, so the connection,
+ * its messages and its reconnects all stay on the event loop it was given.
+ */
+final class MqttConnection extends AbstractVerticle {
+    private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final String name;
+    private final MqttConfig mqttConfig;
+    private final MqttClientOptions options;
+    private final List<String> filters;
+    private final Handler<MqttPublishMessage> handler;
+    // run on the event loop of the connection every time it is (re)connected and subscribed
+    private final Runnable onConnected;
+    private MqttClient mqttClient;
+    private boolean started = false;
+    private boolean stopped = false;
+
+    MqttConnection(int index, MqttConfig mqttConfig, List<String> filters, Handler<MqttPublishMessage> handler) {
+        this(Integer.toString(index), mqttConfig, new MqttClientOptions(), filters, handler, null);
+    }
+
+    MqttConnection(String name, MqttConfig mqttConfig, MqttClientOptions options, List<String> filters,
+                   Handler<MqttPublishMessage> handler, Runnable onConnected) {
+        this.name = name;
+        this.mqttConfig = mqttConfig;
+        this.options = options.setMaxInflightQueue(200);
+        this.filters = filters;
+        this.handler = handler;
+        this.onConnected = onConnected;
+    }
+
+    @Override
+    public void start() {
+        connect();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        disconnect();
+    }
+
+    private void connect() {
+        LOG.info("[{}] Connecting", name);
+        mqttClient = MqttClient.create(vertx, new MqttClientOptions(options));
+
+        connectMqtt(() -> {
+            LOG.info("[{}] MQTT ready", name);
+            started = true;
+            subscribe();
+        });
+        mqttClient.closeHandler(v -> {
+            LOG.info("[{}] Mqtt closed, restart", name);
+            restart();
+        });
+        mqttClient.exceptionHandler(ex -> {
+            LOG.warn("[{}] Exception", name, ex);
+            restart();
+        });
+    }
+
+    private void connectMqtt(Runnable onConnected) {
+        mqttClient.connect(mqttConfig.port(), mqttConfig.host(), ar -> {
+            if (stopped) {
+                return;
+            }
+            if (ar.failed()) {
+                LOG.warn("[{}] MQTT connection failed, retrying in 60 s", name, ar.cause());
+                vertx.setTimer(Duration.ofSeconds(60).toMillis(), l -> {
+                    connectMqtt(onConnected);
+                });
+            } else {
+                LOG.info("[{}] MQTT connected", name);
+                onConnected.run();
+            }
+        });
+    }
+
+    /**
+     * Publishes on the event loop of the connection, fails when it is not connected.
+     */
+    Future<Void> publish(String topic, Buffer payload, MqttQoS qos, boolean retain) {
+        Promise<Void> promise = Promise.promise();
+        context.runOnContext(v -> {
+            if (mqttClient == null || !mqttClient.isConnected()) {
+                promise.fail("[" + name + "] MQTT not connected");
+                return;
+            }
+            mqttClient.publish(topic, payload, qos, false, retain).<Void>mapEmpty().onComplete(promise);
+        });
+        return promise.future();
+    }
+
+    private void disconnect() {
+        started = false;
+        if (mqttClient != null && mqttClient.isConnected()) {
+            mqttClient.disconnect();
+        }
+    }
+
+    private void restart() {
+        if (!started) {
+            LOG.warn("[{}] Cannot restart, not yet running", name);
+            return;
+        }
+        disconnect();
+        LOG.info("[{}] Restarting in 30s", name);
+        vertx.setTimer(Duration.ofSeconds(30).toMillis(), l -> {
+            if (!stopped) {
+                connect();
+            }
+        });
+    }
+
+    private void subscribe() {
+        mqttClient.publishHandler(handler);
+        filters.forEach(topic -> {
+            LOG.info("[{}] Subscribing to topic {}", name, topic);
+            mqttClient.subscribe(
+                    topic,
+                    MqttQoS.AT_MOST_ONCE.value()
+            );
+        });
+        if (onConnected != null) {
+            onConnected.run();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.acme;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps the number of subscription filters down. Filters that only differ in one level are replaced
+ * by a single filter with {@code +} at that level once there are more than a threshold of them, the
+ * subscribers still skip the topics the wildcard lets through that they don't map.
+ */
+final class MqttFilters {
+    private MqttFilters() {
+    }
+
+    /**
+     * @param collapseAbove number of filters differing in one level above which they are collapsed,
+     *                      0 never collapses
+     */
+    static List<String> collapse(Collection<String> topics, int collapseAbove) {
+        TreeSet<String> filters = new TreeSet<>(topics);
+        if (collapseAbove <= 0) {
+            return List.copyOf(filters);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int maxLevels = filters.stream().mapToInt(filter -> filter.split("/", -1).length).max().orElse(0);
+            for (int level = 0; level < maxLevels; level++) {
+                Map<String, List<String>> groups = new LinkedHashMap<>();
+                for (String filter : filters) {
+                    String[] levels = filter.split("/", -1);
+                    if (level >= levels.length || levels[level].equals("+") || levels[level].equals("#")) {
+                        continue;
+                    }
+                    levels[level] = "+";
+                    groups.computeIfAbsent(String.join("/", levels), k -> new ArrayList<>()).add(filter);
+                }
+                for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+                    if (group.getValue().size() > collapseAbove) {
+                        group.getValue().forEach(filters::remove);
+                        filters.add(group.getKey());
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return List.copyOf(filters);
+    }
+}
@@ -5,9 +5,19 @@ import io.vertx.mqtt.messages.MqttPublishMessage;
 import java.util.List;
 
 public interface MqttSubscriber {
-    String getPrefix();
+    /**
+     * Short name of the subscriber, used to tag its metrics.
+     */
+    String name();
 
     List<String> getSubscriptions();
 
-    void consume(MqttPublishMessage msg);
+    void consume(MqttTopic topic, MqttPublishMessage msg);
+
+    /**
+     * The emoncms device (node) a message is posted to. In a cluster all messages of a device are
+     * handled by the same node, whichever subscriber they come from, so its caching, aggregation and
+     * outbox stay in one place.
+     */
+    String deviceKey(MqttTopic topic);
 }
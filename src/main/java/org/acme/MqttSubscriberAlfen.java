@@ -1,81 +1,172 @@
 package org.acme;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.vertx.mqtt.messages.MqttPublishMessage;
 import jakarta.enterprise.context.ApplicationScoped;
-import org.acme.data.PropertyParsed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 
 @ApplicationScoped
 public class MqttSubscriberAlfen implements MqttSubscriber {
     private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private final ObjectReader propertiesReader;
+    private static final String NAME = "alfen";
+    private final JsonFactory jsonFactory;
     private final AlfenConfig alfenConfig;
     private static final String PREFIX = "alfen/properties/";
-    private static final Pattern PROPERTIES_REGEX = Pattern.compile("^" + PREFIX + "(\\S+)/category/(\\S+)$");
+    private final BridgeMetrics.Subscriber subscriberMeters;
     private final EmonPosterCache emonPoster;
+    private final TopicNameIndex<Meter> meters;
 
-    public MqttSubscriberAlfen(ObjectMapper objectMapper, AlfenConfig alfenConfig, EmonPosterCache emonPoster) {
+    /**
+     * Configured feed name per property id, per category of a meter.
+     */
+    record Meter(String name, TopicNameIndex<TopicNameIndex<String>> categories) {
+        static Meter of(String name, AlfenConfig.Input.Properties properties) {
+            return new Meter(name, TopicNameIndex.of(properties.category().entrySet().stream()
+                    .collect(Collectors.toMap(Map.Entry::getKey, e -> TopicNameIndex.of(e.getValue())))));
+        }
+    }
+
+    public MqttSubscriberAlfen(ObjectMapper objectMapper, AlfenConfig alfenConfig, EmonPosterCache emonPoster,
+                               BridgeMetrics metrics) {
         LOG.info("Creating mqtt subscriber for Alfen");
-        this.propertiesReader = objectMapper.readerForListOf(PropertyParsed.class);
+        this.jsonFactory = objectMapper.getFactory();
         this.alfenConfig = alfenConfig;
         this.emonPoster = emonPoster;
+        this.subscriberMeters = metrics.subscriber(NAME);
+        this.meters = TopicNameIndex.of(alfenConfig.input().properties().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> Meter.of(e.getKey(), e.getValue()))));
         if (alfenConfig.enabled()) {
             emonPoster.start("Alfen");
         }
     }
 
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    /**
+     * The categories configured per meter, {@code alfen/properties/<meter>/category/<category>}.
+     */
     @Override
     public List<String> getSubscriptions() {
-        return List.of(PREFIX + "#");
+        if (!alfenConfig.enabled()) {
+            return List.of();
+        }
+        return alfenConfig.input().properties().entrySet().stream()
+                .flatMap(meter -> meter.getValue().category().keySet().stream()
+                        .map(category -> PREFIX + meter.getKey() + "/category/" + category))
+                .toList();
     }
 
     @Override
-    public String getPrefix() {
-        return PREFIX;
+    public String deviceKey(MqttTopic topic) {
+        // alfen/properties/<meter>/..., posted as the meter
+        return topic.levels() > 2 ? topic.level(2) : NAME;
     }
 
     @Override
-    public void consume(MqttPublishMessage msg) {
+    public void consume(MqttTopic topic, MqttPublishMessage msg) {
         if (!alfenConfig.enabled()) {
             return;
         }
         try {
             LOG.debug("Incoming message on: {}", msg.topicName());
-            Matcher matcher = PROPERTIES_REGEX.matcher(msg.topicName());
-            if (matcher.matches()) {
-                String meterName = matcher.group(1);
-                String catetegoryName = matcher.group(2);
-                AlfenConfig.Input.Properties propertiesConfig = alfenConfig.input().properties().get(meterName);
-                if (propertiesConfig == null) {
-                    LOG.debug("No input handled for this meter: {}: ({})", meterName, msg.topicName());
+            // alfen/properties/<meter>/category/<category>
+            if (topic.levels() == 5 && topic.levelEquals(3, "category")) {
+                Meter meter = meters.get(topic, 2);
+                if (meter == null) {
+                    LOG.debug("No input handled for this meter ({})", msg.topicName());
                     return;
                 }
-                Map<String, String> categoryConfig = propertiesConfig.category().get(catetegoryName);
+                TopicNameIndex<String> categoryConfig = meter.categories().get(topic, 4);
                 if (categoryConfig == null) {
-                    LOG.debug("No input handled for this category: {} ({})", catetegoryName, msg.topicName());
+                    LOG.debug("No input handled for this category ({})", msg.topicName());
                     return;
                 }
-                List<PropertyParsed> properties = propertiesReader.readValue(msg.payload().getBytes());
-                Map<String, Object> data = properties.stream()
-                        .filter(p -> categoryConfig.containsKey(p.id()))
-                        .collect(Collectors.toMap(p -> categoryConfig.get(p.id()), PropertyParsed::value));
-                emonPoster.add(meterName, data);
+                Map<String, Object> data;
+                try (JsonParser parser = createParser(ScalarPayloads.byteBuf(msg.payload()))) {
+                    data = readProperties(parser, categoryConfig);
+                }
+                if (!data.isEmpty()) {
+                    emonPoster.add(meter.name(), data);
+                }
             } else {
                 LOG.warn("Don't know how to handle topic {}", msg.topicName());
             }
         } catch (Exception e) {
             LOG.warn("Could not parse message on topic {}", msg.topicName(), e);
+            subscriberMeters.parseFailed();
+        }
+    }
+
+    private JsonParser createParser(ByteBuf payload) throws IOException {
+        if (payload.hasArray()) {
+            return jsonFactory.createParser(payload.array(), payload.arrayOffset() + payload.readerIndex(),
+                    payload.readableBytes());
+        }
+        return jsonFactory.createParser((InputStream) new ByteBufInputStream(payload));
+    }
+
+    /**
+     * Walks an array of properties, {@code [{"id": "2221_A", "value": 1.5, ...}, ...]}, and only keeps
+     * the values of the ids that have a feed configured. Everything else is skipped without being
+     * materialized.
+     */
+    static Map<String, Object> readProperties(JsonParser parser, TopicNameIndex<String> feeds) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected an array of properties");
+        }
+        Map<String, Object> data = new HashMap<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String feed = null;
+            boolean idSeen = false;
+            boolean hasValue = false;
+            double number = 0;
+            Object value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                // field names are canonicalized by the parser, comparing them doesn't allocate
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("id".equals(field) && token == JsonToken.VALUE_STRING) {
+                    idSeen = true;
+                    feed = feeds.get(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                } else if ("value".equals(field) && !(idSeen && feed == null)) {
+                    hasValue = true;
+                    value = null;
+                    switch (token) {
+                        case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> number = parser.getDoubleValue();
+                        case VALUE_TRUE, VALUE_FALSE -> value = parser.getBooleanValue();
+                        case VALUE_STRING -> value = parser.getText();
+                        default -> {
+                            hasValue = false;
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (feed != null && hasValue) {
+                data.put(feed, value != null ? value : number);
+            }
         }
+        return data;
     }
 }
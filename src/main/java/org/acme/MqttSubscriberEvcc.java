@@ -8,90 +8,125 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 @ApplicationScoped
 public class MqttSubscriberEvcc implements MqttSubscriber {
     private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String NAME = "evcc";
     private final EvccConfig evccConfig;
     private final EmonPosterCache emonPoster;
     private static final String PREFIX = "evcc/loadpoints/";
+    private final BridgeMetrics.Subscriber meters;
     private static final String DEVICE = "alfen1";
+    private final TopicNameIndex<Loadpoint> loadpoints;
 
+    /**
+     * Feed names of a loadpoint by topic level, {@code evcc/loadpoints/<id>/<field>} and
+     * {@code evcc/loadpoints/<id>/chargeCurrents/<phase>}.
+     */
+    record Loadpoint(TopicNameIndex<String> fields, TopicNameIndex<String> phases) {
+        static Loadpoint of(EvccConfig.Loadpoint loadpoint) {
+            return new Loadpoint(
+                    TopicNameIndex.of(Map.of(
+                            "chargeCurrent", loadpoint.chargeCurrent(),
+                            "chargePower", loadpoint.chargePower(),
+                            "chargeTotalImport", loadpoint.chargeTotalImport(),
+                            "phasesActive", loadpoint.phasesActive())),
+                    TopicNameIndex.of(Map.of(
+                            "l1", loadpoint.chargeCurrent1(),
+                            "l2", loadpoint.chargeCurrent2(),
+                            "l3", loadpoint.chargeCurrent3())));
+        }
+    }
+
+    private static final List<String> FIELDS = List.of("chargeCurrent", "chargePower", "chargeTotalImport",
+            "phasesActive");
+    private static final List<String> PHASES = List.of("l1", "l2", "l3");
 
-    public MqttSubscriberEvcc(EvccConfig evccConfig, EmonPosterCache emonPoster) {
+    public MqttSubscriberEvcc(EvccConfig evccConfig, EmonPosterCache emonPoster, BridgeMetrics metrics) {
         this.evccConfig = evccConfig;
         this.emonPoster = emonPoster;
+        this.meters = metrics.subscriber(NAME);
+        this.loadpoints = TopicNameIndex.of(evccConfig.loadpoints().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> Loadpoint.of(e.getValue()))));
         if (evccConfig.enabled()) {
             emonPoster.start("Evcc");
         }
     }
 
     @Override
-    public List<String> getSubscriptions() {
-        return List.of(PREFIX + "#");
+    public String name() {
+        return NAME;
     }
 
+    @Override
+    public String deviceKey(MqttTopic topic) {
+        return DEVICE;
+    }
 
+    /**
+     * The mapped fields and phases of the configured loadpoints.
+     */
     @Override
-    public String getPrefix() {
-        return PREFIX;
+    public List<String> getSubscriptions() {
+        if (!evccConfig.enabled()) {
+            return List.of();
+        }
+        return evccConfig.loadpoints().keySet().stream()
+                .flatMap(id -> Stream.concat(
+                        FIELDS.stream().map(field -> PREFIX + id + "/" + field),
+                        PHASES.stream().map(phase -> PREFIX + id + "/chargeCurrents/" + phase)))
+                .toList();
     }
 
     @Override
-    public void consume(MqttPublishMessage msg) {
+    public void consume(MqttTopic topic, MqttPublishMessage msg) {
         if (!evccConfig.enabled()) {
             LOG.debug("Evcc is disabled");
             return;
         }
         try {
             LOG.debug("Incoming message on: {}", msg.topicName());
-            String[] topicParts = msg.topicName().split("/");
-            if (topicParts.length < 4) {
+            if (topic.levels() < 4) {
                 LOG.debug("Nothing to do with this message");
                 return;
             }
-            if (!"loadpoints".equals(topicParts[1])) {
+            if (!topic.levelEquals(1, "loadpoints")) {
                 LOG.debug("Not a loadpoints message");
                 return;
             }
-            String id = topicParts[2];
-            EvccConfig.Loadpoint loadpoint = evccConfig.loadpoints().get(id);
+            Loadpoint loadpoint = loadpoints.get(topic, 2);
             if (loadpoint == null) {
-                LOG.debug("No loadpoint found for id: {}", id);
+                LOG.debug("No loadpoint found for {}", msg.topicName());
                 return;
             }
-            String type = topicParts[3];
-            String meterConfig = switch (type) {
-                case "chargeCurrent" -> loadpoint.chargeCurrent();
-                case "chargePower" -> loadpoint.chargePower();
-                case "chargeTotalImport" -> loadpoint.chargeTotalImport();
-                case "phasesActive" -> loadpoint.phasesActive();
-                case "chargeCurrents" -> {
-                    if (topicParts.length != 5) {
-                        LOG.debug("Not a chargeCurrents message, too short");
-                        yield null;
-                    }
-                    yield switch (topicParts[4]) {
-                        case "l1" -> loadpoint.chargeCurrent1();
-                        case "l2" -> loadpoint.chargeCurrent2();
-                        case "l3" -> loadpoint.chargeCurrent3();
-                        default -> null;
-                    };
+            String meterConfig;
+            if (topic.levelEquals(3, "chargeCurrents")) {
+                if (topic.levels() != 5) {
+                    LOG.debug("Not a chargeCurrents message, too short");
+                    return;
                 }
-                default -> null;
-            };
-            String payload = msg.payload().toString(StandardCharsets.UTF_8);
-            if (meterConfig != null && !payload.isEmpty()) {
-                double value = Double.parseDouble(payload);
+                meterConfig = loadpoint.phases().get(topic, 4);
+            } else {
+                meterConfig = loadpoint.fields().get(topic, 3);
+            }
+            if (meterConfig == null) {
+                return;
+            }
+            if (msg.payload().length() != 0) {
+                double value = ScalarPayloads.parseDouble(msg.payload());
                 LOG.debug("Value for {} -> {}: {}", DEVICE, meterConfig, value);
                 emonPoster.add(DEVICE, meterConfig, value);
             }
         } catch (Exception e) {
             LOG.warn("Could not parse message on topic {}", msg.topicName(), e);
+            meters.parseFailed();
         }
     }
 
@@ -3,7 +3,6 @@ package org.acme;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.runtime.StartupEvent;
-import io.vertx.core.Vertx;
 import io.vertx.mqtt.messages.MqttPublishMessage;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
@@ -11,41 +10,61 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
-import java.net.http.HttpClient;
-import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 
 @ApplicationScoped
 public class MqttSubscriberQbus implements MqttSubscriber {
     private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private final Vertx vertx;
+    private static final String NAME = "qbus";
     private final MqttConfig mqttConfig;
     private static final String PREFIX = "qbus/";
-    private static final Pattern TOPIC_INFO_REGEX = Pattern.compile("^" + PREFIX + "\\d+/info/outputs/(\\S+)$");
-    private static final Pattern TOPIC_STATE_REGEX = Pattern.compile("^" + PREFIX + "\\d+/sensor/(\\S+)/(\\d+)/state$");
+    private static final String DEVICE_PREFIX = "qbus-";
+    private final BridgeMetrics.Subscriber meters;
     private final ObjectMapper objectMapper;
-    private HttpClient httpClient;
     private final EmonPoster emonPoster;
+    private final EmonBulkPoster emonBulkPoster;
+    private final FlushScheduler flushScheduler;
+    private final EmoncmsConfig emoncmsConfig;
     private final QbusConfig qbusConfig;
-    private final Map<String, Map<Integer, Info>> info = new HashMap<>();
-    private final Map<String, Map<Integer, Integer>> values;
-
-    public MqttSubscriberQbus(Vertx vertx, MqttConfig mqttConfig, QbusConfig qbusConfig, ObjectMapper objectMapper, EmonPoster emonPoster) {
-        this.vertx = vertx;
+    private final List<Outputs> outputs;
+    private final TopicNameIndex<Outputs> outputsByType;
+    private long lastFullRefresh;
+
+    public MqttSubscriberQbus(FlushScheduler flushScheduler, MqttConfig mqttConfig, QbusConfig qbusConfig, ObjectMapper objectMapper, EmonPoster emonPoster,
+                              EmonBulkPoster emonBulkPoster, BridgeMetrics metrics, EmoncmsConfig emoncmsConfig) {
+        this.flushScheduler = flushScheduler;
+        this.emoncmsConfig = emoncmsConfig;
         this.mqttConfig = mqttConfig;
         this.objectMapper = objectMapper;
         this.emonPoster = emonPoster;
+        this.emonBulkPoster = emonBulkPoster;
+        this.meters = metrics.subscriber(NAME);
         this.qbusConfig = qbusConfig;
-        values = qbusConfig.types().stream().collect(Collectors.toMap(e -> e, e -> new HashMap<>()));
+        outputs = qbusConfig.types().stream().distinct().map(Outputs::new).toList();
+        outputsByType = TopicNameIndex.of(outputs.stream().collect(Collectors.toMap(o -> o.type, o -> o)));
+    }
+
+    /**
+     * The outputs of one type. The names are replaced as a whole when the controller publishes its
+     * outputs again, so a flush reads them without a lock and never holds up the states coming in.
+     */
+    private static final class Outputs {
+        private final String type;
+        private final String device;
+        private final QbusStateStore states = new QbusStateStore();
+        // only touched by the flush
+        private final QbusStateStore.Drained drained = new QbusStateStore.Drained();
+        // null until the controller published the info of this type
+        private volatile QbusOutputNames names;
+
+        private Outputs(String type) {
+            this.type = type;
+            this.device = DEVICE_PREFIX + type;
+        }
     }
 
     public void onStart(@Observes StartupEvent startupEvent) {
@@ -58,39 +77,54 @@ public class MqttSubscriberQbus implements MqttSubscriber {
             LOG.warn("QBUS is disabled");
             return;
         }
-        vertx.setPeriodic(Duration.ofSeconds(5).toMillis(), this::sendInfo);
+        if (emonBulkPoster.enabled()) {
+            emonBulkPoster.register("Qbus", this::collectInfo);
+            return;
+        }
+        flushScheduler.register("Qbus", emoncmsConfig.flush().interval(), this::sendInfo);
     }
 
-    private void sendInfo(Long l) {
+    private void sendInfo() {
         LOG.debug("Sending info to emonCMS");
-        synchronized (values) {
-            synchronized (info) {
-                values.forEach((type, v) -> {
-                    Map<Integer, Info> infoMap = info.get(type);
-                    if (infoMap == null) {
-                        return;
-                    }
-                    String device = "qbus-" + type;
-                    Map<String, Integer> dataToPost = v.entrySet().stream()
-                            .flatMap(e -> {
-                                Info i = infoMap.get(e.getKey());
-                                if (i == null) {
-                                    return Stream.empty();
-                                }
-                                return Stream.of(new EmonData(i.name(), e.getValue()));
-                            }).collect(Collectors.toMap(x -> x.name, x -> x.value));
-                    vertx.executeBlocking((Callable<Void>) () -> {
-                        emonPoster.post(device, dataToPost);
-                        return null;
-                    });
-                });
+        collectInfo().forEach(emonPoster::post);
+    }
+
+    /**
+     * Collects the outputs whose state changed since the previous call, or all outputs when a full
+     * refresh is due. Outputs of a type without info yet are kept until the info arrives.
+     */
+    private Map<String, Map<String, Integer>> collectInfo() {
+        Map<String, Map<String, Integer>> dataForDevices = new HashMap<>();
+        long now = System.currentTimeMillis();
+        boolean full = now - lastFullRefresh >= qbusConfig.fullRefreshInterval().toMillis();
+        if (full) {
+            lastFullRefresh = now;
+        }
+        for (Outputs output : outputs) {
+            QbusOutputNames names = output.names;
+            if (names == null) {
+                continue;
+            }
+            // copied out under the lock of the store, the names are resolved after releasing it
+            QbusStateStore.Drained drained = output.drained;
+            output.states.drain(full, drained);
+            Map<String, Integer> dataToPost = new HashMap<>();
+            for (int i = 0; i < drained.size(); i++) {
+                String name = names.name(drained.id(i));
+                if (name != null) {
+                    dataToPost.put(name, drained.state(i));
+                }
+            }
+            if (!dataToPost.isEmpty()) {
+                dataForDevices.put(output.device, dataToPost);
             }
         }
+        return dataForDevices;
     }
 
     @Override
-    public String getPrefix() {
-        return PREFIX;
+    public String name() {
+        return NAME;
     }
 
     @Override
@@ -101,67 +135,73 @@ public class MqttSubscriberQbus implements MqttSubscriber {
         );
     }
 
-    record EmonData(String name, Integer value) {
+    @Override
+    public String deviceKey(MqttTopic topic) {
+        // qbus/<controller>/sensor/<type>/<id>/state and qbus/<controller>/info/outputs/<type>
+        if (topic.levels() == 6) {
+            return DEVICE_PREFIX + topic.level(3);
+        }
+        return topic.levels() == 5 ? DEVICE_PREFIX + topic.level(4) : NAME;
     }
 
     record Info(Integer id, String name) {
     }
 
     @Override
-    public void consume(MqttPublishMessage msg) {
+    public void consume(MqttTopic topic, MqttPublishMessage msg) {
         if (!qbusConfig.enabled()) {
             return;
         }
-        Matcher m = TOPIC_STATE_REGEX.matcher(msg.topicName());
-        if (m.matches()) {
-            consumeState(msg, m);
+        // qbus/<controller>/sensor/<type>/<id>/state
+        if (topic.levels() == 6 && topic.levelEquals(2, "sensor") && topic.levelEquals(5, "state")) {
+            consumeState(topic, msg);
             return;
         }
-        m = TOPIC_INFO_REGEX.matcher(msg.topicName());
-        if (m.matches()) {
-            consumeInfo(msg, m);
+        // qbus/<controller>/info/outputs/<type>
+        if (topic.levels() == 5 && topic.levelEquals(2, "info") && topic.levelEquals(3, "outputs")) {
+            consumeInfo(topic, msg);
             return;
         }
         LOG.debug("Can't parse topic {}", msg.topicName());
     }
 
-    private void consumeInfo(MqttPublishMessage msg, Matcher m) {
+    private void consumeInfo(MqttTopic topic, MqttPublishMessage msg) {
         try {
-            String type = m.group(1);
-            if (!qbusConfig.types().contains(type)) {
-                LOG.debug("Ignoring info type {} since not in config", type);
+            Outputs output = outputsByType.get(topic, 4);
+            if (output == null) {
+                LOG.debug("Ignoring info type of {} since not in config", msg.topicName());
                 return;
             }
             List<Info> myObjects = objectMapper.readValue(msg.payload().getBytes(), new TypeReference<>() {
             });
             LOG.debug("Qbus info on: {} -- {}", msg.topicName(), myObjects);
-            LOG.info("Qbus info for type: {}", type);
-            synchronized (info) {
-                info.put(type, myObjects.stream().collect(Collectors.toMap(e -> e.id, e -> e)));
-            }
+            LOG.info("Qbus info for type: {}", output.type);
+            output.names = QbusOutputNames.of(myObjects);
+            // outputs may have changed before their names were known
+            output.states.markAllDirty();
         } catch (Exception e) {
             LOG.warn("Could not parse message on topic {}", msg.topicName(), e);
+            meters.parseFailed();
         }
     }
 
 
-    private void consumeState(MqttPublishMessage msg, Matcher m) {
+    private void consumeState(MqttTopic topic, MqttPublishMessage msg) {
         try {
-            String type = m.group(1);
-            if (!qbusConfig.types().contains(type)) {
-                LOG.debug("Ignoring state on type {} since not in config", type);
+            Outputs output = outputsByType.get(topic, 3);
+            if (output == null) {
+                LOG.debug("Ignoring state on {} since type not in config", msg.topicName());
                 return;
             }
-            Integer id = Integer.parseInt(m.group(2));
+            int id = topic.parseInt(4);
 
-            int data = Integer.parseInt(msg.payload().toString(StandardCharsets.UTF_8));
-            LOG.info("Qbus state on: {}: {}", msg.topicName(), data);
-            synchronized (values) {
-                values.get(type).put(id, data);
-            }
+            int data = ScalarPayloads.parseInt(msg.payload());
+            LOG.debug("Qbus state on: {}: {}", msg.topicName(), data);
+            output.states.put(id, data);
         } catch (
                 Exception e) {
             LOG.warn("Could not parse message on topic {}", msg.topicName(), e);
+            meters.parseFailed();
         }
     }
 
@@ -7,60 +7,74 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 @ApplicationScoped
 public class MqttSubscriberSlimmelezer implements MqttSubscriber {
     private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String NAME = "slimmelezer";
     private final SlimmelezerConfig slimmelezerConfig;
     private static final String PREFIX = "slimmelezer/sensor/";
-    private static final Pattern PROPERTIES_REGEX = Pattern.compile("^" + PREFIX + "(\\S+)/state$");
+    private final BridgeMetrics.Subscriber meters;
     private final EmonPosterCache emonPoster;
     private static final String DEVICE = "slimmelezer";
+    private final TopicNameIndex<String> items;
 
 
-    public MqttSubscriberSlimmelezer(SlimmelezerConfig slimmelezerConfig, EmonPosterCache emonPoster) {
+    public MqttSubscriberSlimmelezer(SlimmelezerConfig slimmelezerConfig, EmonPosterCache emonPoster, BridgeMetrics metrics) {
         this.slimmelezerConfig = slimmelezerConfig;
         this.emonPoster = emonPoster;
+        this.meters = metrics.subscriber(NAME);
+        this.items = TopicNameIndex.of(slimmelezerConfig.items());
         if (slimmelezerConfig.enabled()) {
             emonPoster.start("Slimmelezer");
         }
     }
 
-    public void consume(MqttPublishMessage msg) {
+    public void consume(MqttTopic topic, MqttPublishMessage msg) {
         if (!slimmelezerConfig.enabled()) {
             LOG.debug("Slimmelezer is disabled");
         }
         try {
-            Thread.sleep(1);
             LOG.debug("Incoming message on: {}", msg.topicName());
-            Matcher matcher = PROPERTIES_REGEX.matcher(msg.topicName());
-            if (matcher.matches()) {
-                String meterName = matcher.group(1);
-                String meterConfig = slimmelezerConfig.items().get(meterName);
+            // slimmelezer/sensor/<item>/state
+            if (topic.levels() == 4 && topic.levelEquals(3, "state")) {
+                String meterConfig = items.get(topic, 2);
                 if (meterConfig == null) {
-                    LOG.debug("No input handled for this meter: {}: ({})", meterName, msg.topicName());
+                    LOG.debug("No input handled for this meter ({})", msg.topicName());
                     return;
                 }
-                double value = Double.parseDouble(new String(msg.payload().getBytes()));
+                double value = ScalarPayloads.parseDouble(msg.payload());
                 emonPoster.add(DEVICE, meterConfig, value);
             } else {
                 LOG.debug("Don't know how to handle topic {}", msg.topicName());
             }
         } catch (Exception e) {
             LOG.warn("Could not parse message on topic {}", msg.topicName(), e);
+            meters.parseFailed();
         }
     }
 
     @Override
-    public List<String> getSubscriptions() {
-        return List.of(PREFIX + "#");
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String deviceKey(MqttTopic topic) {
+        return DEVICE;
     }
 
+    /**
+     * The configured items, {@code slimmelezer/sensor/<item>/state}.
+     */
     @Override
-    public String getPrefix() {
-        return PREFIX;
+    public List<String> getSubscriptions() {
+        if (!slimmelezerConfig.enabled()) {
+            return List.of();
+        }
+        return slimmelezerConfig.items().keySet().stream()
+                .map(item -> PREFIX + item + "/state")
+                .toList();
     }
 }
@@ -1,12 +1,10 @@
 package org.acme;
 
-import io.netty.handler.codec.mqtt.MqttQoS;
 import io.quarkus.arc.All;
 import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
-import io.vertx.mqtt.MqttClient;
-import io.vertx.mqtt.MqttClientOptions;
 import io.vertx.mqtt.messages.MqttPublishMessage;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
@@ -15,24 +13,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @ApplicationScoped
 public class MqttSubscribers {
     private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
     private final Vertx vertx;
-    private MqttClient mqttClient;
-    private volatile boolean started = false;
     private MqttConfig mqttConfig;
+    private volatile MqttTopicRouter router;
+    private final BridgeMetrics metrics;
+    private final MqttCluster cluster;
+    private final List<String> deployments = new CopyOnWriteArrayList<>();
+    // one per connection, empty when messages are handled on the event loops
+    private final List<Ingress> ingress = new CopyOnWriteArrayList<>();
+    private volatile boolean stopped;
 
     @Inject
     @All
     List<MqttSubscriber> subscribers;
 
-    public MqttSubscribers(Vertx vertx, MqttConfig mqttConfig) {
+    public MqttSubscribers(Vertx vertx, MqttConfig mqttConfig, BridgeMetrics metrics, MqttCluster cluster) {
         this.vertx = vertx;
         this.mqttConfig = mqttConfig;
+        this.metrics = metrics;
+        this.cluster = cluster;
     }
 
     public void onStart(@Observes StartupEvent startupEvent) {
@@ -45,91 +54,210 @@ public class MqttSubscribers {
             LOG.warn("MQTT not enabled");
             return;
         }
-        MqttClientOptions mqttClientOptions = new MqttClientOptions()
-                .setMaxInflightQueue(200);
-        mqttClient = MqttClient.create(vertx, mqttClientOptions);
-
-        connectMqtt(() -> {
-            LOG.info("MQTT ready");
-            started = true;
-            subscribe();
-        });
-        mqttClient.closeHandler(v -> {
-            LOG.info("Mqtt closed, restart");
-            restart();
-        });
-        mqttClient.exceptionHandler(ex -> {
-            LOG.warn("Exception", ex);
-            restart();
-        });
+        List<MeteredSubscriber> metered = subscribers.stream()
+                .map(subscriber -> new MeteredSubscriber(subscriber, metrics.subscriber(subscriber.name()),
+                        MqttFilters.collapse(subscriber.getSubscriptions(), mqttConfig.collapseAbove())))
+                .toList();
+        router = new MqttTopicRouter(metered);
+        List<String> filters = metered.stream()
+                .flatMap(subscriber -> subscriber.getSubscriptions().stream())
+                .distinct()
+                .toList();
+        boolean shared = cluster.enabled()
+                ? cluster.shared()
+                : mqttConfig.partitioning() == MqttConfig.Partitioning.SHARED && mqttConfig.connections() > 1;
+        List<List<String>> partitions = partition(filters, mqttConfig.connections(),
+                shared ? mqttConfig.sharedGroup() : null);
+        if (cluster.enabled()) {
+            // subscribing before the owners are known would handle retained messages of every device
+            cluster.start(msg -> handleMsgWitchAck(msg, true)).onComplete(v -> connect(partitions));
+        } else {
+            connect(partitions);
+        }
     }
 
-    private void connectMqtt(Runnable onConnected) {
-        mqttClient.connect(mqttConfig.port(), mqttConfig.host(), ar -> {
-            if (ar.failed()) {
-                LOG.warn("MQTT connection failed, retrying in 60 s", ar.cause());
-                vertx.setTimer(Duration.ofSeconds(60).toMillis(), l -> {
-                    connectMqtt(onConnected);
-                });
-            } else {
-                LOG.info("MQTT connected");
-                onConnected.run();
+    private void connect(List<List<String>> partitions) {
+        if (stopped) {
+            return;
+        }
+        LOG.info("Opening {} MQTT connections", partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            Handler<MqttPublishMessage> handler = this::handleMsg;
+            if (mqttConfig.ingress().enabled()) {
+                Ingress lane = new Ingress(i);
+                ingress.add(lane);
+                handler = lane::handleMsg;
             }
-        });
+            vertx.deployVerticle(new MqttConnection(i, mqttConfig, partitions.get(i), handler))
+                    .onSuccess(deployments::add)
+                    .onFailure(e -> LOG.warn("Could not deploy MQTT connection", e));
+        }
     }
 
-    public void stop(@Observes ShutdownEvent shutdownEvent) {
-        stop();
+    /**
+     * Splits the subscription filters over the connections: each filter on one connection, or with a
+     * shared group every filter on every connection as a shared subscription so the broker spreads the
+     * messages.
+     */
+    static List<List<String>> partition(List<String> filters, int connections, String sharedGroup) {
+        List<List<String>> partitions = new ArrayList<>();
+        if (sharedGroup != null) {
+            List<String> shared = filters.stream().map(filter -> "$share/" + sharedGroup + "/" + filter).toList();
+            for (int i = 0; i < Math.max(1, connections); i++) {
+                partitions.add(shared);
+            }
+            return partitions;
+        }
+        int count = Math.max(1, Math.min(connections, filters.size()));
+        for (int i = 0; i < count; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            partitions.get(i % count).add(filters.get(i));
+        }
+        return partitions;
     }
 
-    private void stop() {
+    public void stop(@Observes ShutdownEvent shutdownEvent) {
         LOG.info("Stopping");
-        started = false;
-        //consumer.unregister()
-        if (mqttClient.isConnected()) {
-            mqttClient.disconnect();
+        stopped = true;
+        if (cluster.enabled()) {
+            cluster.stop();
         }
+        deployments.forEach(vertx::undeploy);
+        ingress.forEach(Ingress::shutdown);
     }
 
-    private void restart() {
-        if (!started) {
-            LOG.warn("Cannot restart, not yet running");
+    private void handleMsg(MqttPublishMessage msg) {
+        handleMsgWitchAck(msg, false);
+        msg.ack();
+    }
+
+    /**
+     * Hands a message to the subscribers it routes to. In a cluster, a subscriber only gets the messages
+     * of devices this node owns, the others are forwarded to their owner or skipped when every node
+     * receives them anyway. Forwarded messages are never forwarded again.
+     */
+    private void handleMsgWitchAck(MqttPublishMessage msg, boolean forwarded) {
+        LOG.debug("Got msg on {}", msg.topicName());
+
+        MqttTopic topic = MqttTopic.of(msg.topicName());
+        List<MqttSubscriber> matches = router.route(topic);
+        if (matches.isEmpty()) {
+            LOG.warn("No subscriber found for {}", msg.topicName());
+            metrics.unrouted();
             return;
         }
-        stop();
-        LOG.info("Restarting in 30s");
-        vertx.setTimer(Duration.ofSeconds(30).toMillis(), l -> {
-            start();
-        });
+        if (!cluster.enabled() || forwarded) {
+            for (int i = 0; i < matches.size(); i++) {
+                matches.get(i).consume(topic, msg);
+            }
+            return;
+        }
+        String forwardedTo = null;
+        for (int i = 0; i < matches.size(); i++) {
+            MqttSubscriber match = matches.get(i);
+            String owner = cluster.owner(match.deviceKey(topic));
+            if (owner.equals(cluster.nodeId())) {
+                match.consume(topic, msg);
+            } else if (cluster.shared() && !owner.equals(forwardedTo)) {
+                cluster.forward(owner, msg);
+                forwardedTo = owner;
+            }
+        }
     }
 
-    private void subscribe() {
-        mqttClient.publishHandler(this::handleMsg);
-        subscribers.forEach(subscriber -> {
-            subscriber.getSubscriptions().forEach(topic -> {
-                LOG.info("Subscribing to topic {}", topic);
-                mqttClient.subscribe(
-                        topic,
-                        MqttQoS.AT_MOST_ONCE.value()
-                );
-            });
-        });
-    }
+    /**
+     * Queue between a connection and the subscribers, drained on its own thread so the event loop of
+     * the connection only queues messages.
+     */
+    private final class Ingress {
+        private final IngressQueue queue;
+        private final ExecutorService executor;
+        private final AtomicBoolean draining = new AtomicBoolean();
 
-    private void handleMsg(MqttPublishMessage msg) {
-        handleMsgWitchAck(msg);
-        msg.ack();
+        private Ingress(int index) {
+            MqttConfig.Ingress config = mqttConfig.ingress();
+            queue = new IngressQueue(config.capacity(), config.maxBytes(), config.overflow());
+            executor = Executors.newSingleThreadExecutor(r -> Thread.ofPlatform()
+                    .name("mqtt-ingress-" + index).daemon().unstarted(r));
+            metrics.ingressQueue(Integer.toString(index), queue, IngressQueue::size);
+            metrics.ingressConflated(Integer.toString(index), queue, IngressQueue::conflated);
+        }
+
+        private void handleMsg(MqttPublishMessage msg) {
+            int dropped = queue.offer(msg);
+            if (dropped > 0) {
+                metrics.ingressDropped(dropped);
+            }
+            msg.ack();
+            if (draining.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        /**
+         * Hands the queued messages to the subscribers in batches, until the queue is empty.
+         */
+        private void drain() {
+            int batchSize = mqttConfig.ingress().batchSize();
+            List<MqttPublishMessage> batch = new ArrayList<>(batchSize);
+            while (true) {
+                queue.drainTo(batch, batchSize);
+                if (batch.isEmpty()) {
+                    draining.set(false);
+                    // a message may have been queued after the queue was found empty
+                    if (queue.size() == 0 || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        handleMsgWitchAck(batch.get(i), false);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Could not handle message on {}", batch.get(i).topicName(), e);
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        private void shutdown() {
+            executor.shutdown();
+        }
     }
 
-    private void handleMsgWitchAck(MqttPublishMessage msg) {
-        LOG.debug("Got msg on {}", msg.topicName());
+    /**
+     * Counts and times the messages routed to a subscriber, subscribed with its collapsed filters.
+     */
+    private record MeteredSubscriber(MqttSubscriber subscriber, BridgeMetrics.Subscriber meters,
+                                     List<String> subscriptions)
+            implements MqttSubscriber {
+        @Override
+        public String name() {
+            return subscriber.name();
+        }
+
+        @Override
+        public List<String> getSubscriptions() {
+            return subscriptions;
+        }
+
+        @Override
+        public String deviceKey(MqttTopic topic) {
+            return subscriber.deviceKey(topic);
+        }
 
-        for (MqttSubscriber subscriber : subscribers) {
-            if (msg.topicName().startsWith(subscriber.getPrefix())) {
-                subscriber.consume(msg);
-                return;
+        @Override
+        public void consume(MqttTopic topic, MqttPublishMessage msg) {
+            meters.received();
+            long start = System.nanoTime();
+            try {
+                subscriber.consume(topic, msg);
+            } finally {
+                meters.consumed(start);
             }
         }
-        LOG.warn("No subscriber found for {}", msg.topicName());
     }
 }
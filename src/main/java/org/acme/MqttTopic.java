@@ -0,0 +1,84 @@
+package org.acme;
+
+/**
+ * An MQTT topic name split into its levels. The levels are kept as offsets into the original
+ * topic string, so splitting does not create a string per level.
+ */
+public final class MqttTopic {
+    private final String name;
+    // starts[i] is the offset of level i, starts[levels] is name.length() + 1
+    private final int[] starts;
+    private final int levels;
+
+    private MqttTopic(String name, int[] starts, int levels) {
+        this.name = name;
+        this.starts = starts;
+        this.levels = levels;
+    }
+
+    public static MqttTopic of(String name) {
+        int levels = 1;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == '/') {
+                levels++;
+            }
+        }
+        int[] starts = new int[levels + 1];
+        int level = 1;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == '/') {
+                starts[level++] = i + 1;
+            }
+        }
+        starts[levels] = name.length() + 1;
+        return new MqttTopic(name, starts, levels);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int levels() {
+        return levels;
+    }
+
+    public int start(int level) {
+        return starts[level];
+    }
+
+    public int end(int level) {
+        return starts[level + 1] - 1;
+    }
+
+    public int length(int level) {
+        return end(level) - start(level);
+    }
+
+    public String level(int level) {
+        return name.substring(start(level), end(level));
+    }
+
+    public boolean levelEquals(int level, String value) {
+        return length(level) == value.length() && name.startsWith(value, start(level));
+    }
+
+    /**
+     * Same as {@code level(level).hashCode()}, without creating the string.
+     */
+    public int hash(int level) {
+        int hash = 0;
+        for (int i = start(level); i < end(level); i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return hash;
+    }
+
+    public int parseInt(int level) {
+        return Integer.parseInt(name, start(level), end(level), 10);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
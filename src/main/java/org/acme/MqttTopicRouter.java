@@ -0,0 +1,139 @@
+package org.acme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Routes topics to subscribers using a trie built from the subscription filters of each
+ * {@link MqttSubscriber}, one trie level per topic level. Supports the MQTT wildcards
+ * {@code +} (exactly one level) and {@code #} (the parent level and everything below it).
+ */
+public final class MqttTopicRouter {
+    private final Node root = new Node();
+
+    public MqttTopicRouter(Collection<? extends MqttSubscriber> subscribers) {
+        subscribers.forEach(subscriber ->
+                subscriber.getSubscriptions().forEach(filter -> add(filter, subscriber)));
+    }
+
+    private void add(String filter, MqttSubscriber subscriber) {
+        String[] levels = filter.split("/", -1);
+        Node node = root;
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if ("#".equals(level)) {
+                if (i != levels.length - 1) {
+                    throw new IllegalArgumentException("'#' must be the last level in filter " + filter);
+                }
+                if (node.multiLevel == null) {
+                    node.multiLevel = new Node();
+                }
+                node = node.multiLevel;
+            } else if ("+".equals(level)) {
+                if (node.singleLevel == null) {
+                    node.singleLevel = new Node();
+                }
+                node = node.singleLevel;
+            } else {
+                if (level.contains("+") || level.contains("#")) {
+                    throw new IllegalArgumentException("Invalid wildcard in filter " + filter);
+                }
+                node = node.child(level);
+            }
+        }
+        node.addSubscriber(subscriber);
+    }
+
+    /**
+     * Returns every subscriber with at least one filter matching the topic, each subscriber once.
+     */
+    public List<MqttSubscriber> route(MqttTopic topic) {
+        List<MqttSubscriber> matches = new ArrayList<>(2);
+        // topics starting with '$' are reserved and don't match wildcards on the first level
+        boolean reserved = topic.length(0) > 0 && topic.name().charAt(0) == '$';
+        match(root, topic, 0, reserved, matches);
+        return matches;
+    }
+
+    private static void match(Node node, MqttTopic topic, int level, boolean reserved, List<MqttSubscriber> matches) {
+        if (node.multiLevel != null && !reserved) {
+            node.multiLevel.collect(matches);
+        }
+        if (level == topic.levels()) {
+            node.collect(matches);
+            return;
+        }
+        Node child = node.find(topic, level);
+        if (child != null) {
+            match(child, topic, level + 1, false, matches);
+        }
+        if (node.singleLevel != null && !reserved) {
+            match(node.singleLevel, topic, level + 1, false, matches);
+        }
+    }
+
+    private static final class Node {
+        private static final String[] NO_NAMES = new String[0];
+        private static final Node[] NO_NODES = new Node[0];
+        private static final MqttSubscriber[] NO_SUBSCRIBERS = new MqttSubscriber[0];
+
+        // literal children, compared against the topic in place so no level string is created
+        private String[] names = NO_NAMES;
+        private Node[] children = NO_NODES;
+        private Node singleLevel;
+        private Node multiLevel;
+        private MqttSubscriber[] subscribers = NO_SUBSCRIBERS;
+
+        Node child(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return children[i];
+                }
+            }
+            Node child = new Node();
+            names = Arrays.copyOf(names, names.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            names[names.length - 1] = name;
+            children[children.length - 1] = child;
+            return child;
+        }
+
+        Node find(MqttTopic topic, int level) {
+            for (int i = 0; i < names.length; i++) {
+                if (topic.levelEquals(level, names[i])) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addSubscriber(MqttSubscriber subscriber) {
+            for (MqttSubscriber s : subscribers) {
+                if (s == subscriber) {
+                    return;
+                }
+            }
+            subscribers = Arrays.copyOf(subscribers, subscribers.length + 1);
+            subscribers[subscribers.length - 1] = subscriber;
+        }
+
+        void collect(List<MqttSubscriber> matches) {
+            for (MqttSubscriber subscriber : subscribers) {
+                if (!contains(matches, subscriber)) {
+                    matches.add(subscriber);
+                }
+            }
+        }
+
+        private static boolean contains(List<MqttSubscriber> matches, MqttSubscriber subscriber) {
+            for (int i = 0; i < matches.size(); i++) {
+                if (matches.get(i) == subscriber) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.acme;
 import io.smallrye.config.ConfigMapping;
 import io.smallrye.config.WithDefault;
 
+import java.time.Duration;
 import java.util.List;
 
 @ConfigMapping(prefix = "qbus")
@@ -11,4 +12,10 @@ public interface QbusConfig {
     boolean enabled();
 
     List<String> types();
+
+    /**
+     * Only changed outputs are posted, except every full refresh interval when all of them are.
+     */
+    @WithDefault("5m")
+    Duration fullRefreshInterval();
 }
\ No newline at end of file
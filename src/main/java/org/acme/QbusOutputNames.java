@@ -0,0 +1,54 @@
+package org.acme;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Feed names of the Qbus outputs of one type by id. Built once from the info a controller publishes
+ * and never changed afterwards, a new list of outputs replaces the whole table. Lookups are a binary
+ * search over the sorted ids, without locking, boxing or allocating.
+ */
+final class QbusOutputNames {
+    private final int[] ids;
+    private final String[] names;
+
+    private QbusOutputNames(int[] ids, String[] names) {
+        this.ids = ids;
+        this.names = names;
+    }
+
+    /**
+     * Outputs without id or name are skipped, of an id listed twice the last name wins.
+     */
+    static QbusOutputNames of(List<MqttSubscriberQbus.Info> outputs) {
+        List<MqttSubscriberQbus.Info> sorted = outputs.stream()
+                .filter(output -> output.id() != null && output.name() != null)
+                .sorted(Comparator.comparingInt(MqttSubscriberQbus.Info::id))
+                .toList();
+        int[] ids = new int[sorted.size()];
+        String[] names = new String[sorted.size()];
+        int size = 0;
+        for (MqttSubscriberQbus.Info output : sorted) {
+            if (size > 0 && ids[size - 1] == output.id()) {
+                size--;
+            }
+            ids[size] = output.id();
+            names[size] = output.name();
+            size++;
+        }
+        return new QbusOutputNames(Arrays.copyOf(ids, size), Arrays.copyOf(names, size));
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the feed name of the output, null when the controller did not list it
+     */
+    String name(int id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? names[index] : null;
+    }
+}
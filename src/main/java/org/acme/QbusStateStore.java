@@ -0,0 +1,154 @@
+package org.acme;
+
+import java.util.Arrays;
+
+/**
+ * States of the Qbus outputs of one type, kept in an open-addressing int to int table. Every id
+ * whose state changed is marked dirty until it is drained.
+ */
+public class QbusStateStore {
+    private static final int FREE = -1;
+
+    private int[] ids;
+    private int[] states;
+    private long[] dirty;
+    private int size;
+
+    public QbusStateStore() {
+        this(64);
+    }
+
+    public QbusStateStore(int capacity) {
+        // at least one full word of dirty bits
+        allocate(Integer.highestOneBit(Math.max(capacity, 64) - 1) << 1);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the state of the output changed
+     */
+    public synchronized boolean put(int id, int state) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid Qbus id " + id);
+        }
+        int slot = slot(id);
+        if (ids[slot] == id) {
+            if (states[slot] == state) {
+                return false;
+            }
+        } else {
+            if ((size + 1) * 4 > ids.length * 3) {
+                grow();
+                slot = slot(id);
+            }
+            ids[slot] = id;
+            size++;
+        }
+        states[slot] = state;
+        dirty[slot >>> 6] |= 1L << slot;
+        return true;
+    }
+
+    /**
+     * Ids and states taken out of a store, reused from one drain to the next.
+     */
+    public static final class Drained {
+        private int[] ids = new int[64];
+        private int[] states = new int[64];
+        private int size;
+
+        public int size() {
+            return size;
+        }
+
+        public int id(int index) {
+            return ids[index];
+        }
+
+        public int state(int index) {
+            return states[index];
+        }
+
+        private void reset(int capacity) {
+            if (ids.length < capacity) {
+                ids = new int[capacity];
+                states = new int[capacity];
+            }
+            size = 0;
+        }
+
+        private void add(int id, int state) {
+            ids[size] = id;
+            states[size] = state;
+            size++;
+        }
+    }
+
+    /**
+     * Copies the dirty outputs, or all of them, and clears their dirty flag. Only copies while locked,
+     * so a put never waits for more than that.
+     */
+    public synchronized void drain(boolean all, Drained into) {
+        into.reset(size);
+        for (int word = 0; word < dirty.length; word++) {
+            long bits = all ? -1L : dirty[word];
+            while (bits != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (ids[slot] != FREE) {
+                    into.add(ids[slot], states[slot]);
+                }
+            }
+            dirty[word] = 0;
+        }
+    }
+
+    public synchronized void markAllDirty() {
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (ids[slot] != FREE) {
+                dirty[slot >>> 6] |= 1L << slot;
+            }
+        }
+    }
+
+    private int slot(int id) {
+        int mask = ids.length - 1;
+        int slot = mix(id) & mask;
+        while (ids[slot] != FREE && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int[] oldIds = ids;
+        int[] oldStates = states;
+        long[] oldDirty = dirty;
+        allocate(oldIds.length * 2);
+        for (int oldSlot = 0; oldSlot < oldIds.length; oldSlot++) {
+            if (oldIds[oldSlot] != FREE) {
+                int slot = slot(oldIds[oldSlot]);
+                ids[slot] = oldIds[oldSlot];
+                states[slot] = oldStates[oldSlot];
+                if ((oldDirty[oldSlot >>> 6] & (1L << oldSlot)) != 0) {
+                    dirty[slot >>> 6] |= 1L << slot;
+                }
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        Arrays.fill(ids, FREE);
+        states = new int[capacity];
+        dirty = new long[capacity >>> 6];
+    }
+}
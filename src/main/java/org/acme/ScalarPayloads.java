@@ -0,0 +1,145 @@
+package org.acme;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes MQTT payloads holding a single ASCII number straight from the payload buffer, without
+ * copying the bytes or creating a string. Anything outside the plain decimal fast path, like
+ * {@code NaN} or very long mantissas, is handed to the JDK parsers.
+ */
+public final class ScalarPayloads {
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // largest mantissa that converts to a double exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private ScalarPayloads() {
+    }
+
+    /**
+     * The netty buffer backing a payload, a duplicate that shares the payload bytes so nothing is copied.
+     * Vert.x 5 moves this to {@code BufferInternal}, the parsers below only use the public buffer API.
+     */
+    @SuppressWarnings("deprecation")
+    public static ByteBuf byteBuf(Buffer payload) {
+        return payload.getByteBuf();
+    }
+
+    public static double parseDouble(Buffer buf) {
+        int start = 0;
+        int end = buf.length();
+        while (start < end && isWhitespace(buf.getByte(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(buf.getByte(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            throw new NumberFormatException("Empty payload");
+        }
+        int i = start;
+        boolean negative = false;
+        byte b = buf.getByte(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        boolean digits = false;
+        for (; i < end && isDigit(b = buf.getByte(i)); i++) {
+            mantissa = mantissa * 10 + (b - '0');
+            digits = true;
+            if (mantissa > MAX_EXACT_MANTISSA) {
+                return fallbackDouble(buf, start, end);
+            }
+        }
+        if (i < end && buf.getByte(i) == '.') {
+            for (i++; i < end && isDigit(b = buf.getByte(i)); i++) {
+                mantissa = mantissa * 10 + (b - '0');
+                exponent--;
+                digits = true;
+                if (mantissa > MAX_EXACT_MANTISSA) {
+                    return fallbackDouble(buf, start, end);
+                }
+            }
+        }
+        if (i < end && (buf.getByte(i) == 'e' || buf.getByte(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buf.getByte(i) == '-' || buf.getByte(i) == '+')) {
+                negativeExponent = buf.getByte(i) == '-';
+                i++;
+            }
+            int explicit = 0;
+            int exponentStart = i;
+            for (; i < end && isDigit(b = buf.getByte(i)) && explicit < 1000; i++) {
+                explicit = explicit * 10 + (b - '0');
+            }
+            if (i == exponentStart) {
+                return fallbackDouble(buf, start, end);
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        if (i != end || !digits || exponent < -22 || exponent > 22) {
+            return fallbackDouble(buf, start, end);
+        }
+        double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    public static int parseInt(Buffer buf) {
+        int start = 0;
+        int end = buf.length();
+        while (start < end && isWhitespace(buf.getByte(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(buf.getByte(end - 1))) {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buf.getByte(i) == '-' || buf.getByte(i) == '+')) {
+            negative = buf.getByte(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            return fallbackInt(buf, start, end);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buf.getByte(i);
+            if (!isDigit(b)) {
+                return fallbackInt(buf, start, end);
+            }
+            value = value * 10 + (b - '0');
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return fallbackInt(buf, start, end);
+        }
+        return (int) value;
+    }
+
+    private static double fallbackDouble(Buffer buf, int start, int end) {
+        return Double.parseDouble(buf.getString(start, end, StandardCharsets.US_ASCII.name()));
+    }
+
+    private static int fallbackInt(Buffer buf, int start, int end) {
+        // throws the usual NumberFormatException for anything that isn't a valid int
+        return Integer.parseInt(buf.getString(start, end, StandardCharsets.US_ASCII.name()));
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
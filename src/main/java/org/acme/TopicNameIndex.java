@@ -0,0 +1,76 @@
+package org.acme;
+
+import java.util.Map;
+
+/**
+ * Read-only lookup of configured names that can be queried with a level of an {@link MqttTopic},
+ * or with a range of characters from a parser buffer, without creating a string for it.
+ */
+public final class TopicNameIndex<V> {
+    private final String[] names;
+    private final Object[] values;
+    private final int mask;
+
+    private TopicNameIndex(Map<String, ? extends V> entries) {
+        int capacity = Integer.highestOneBit(Math.max(entries.size() * 2, 2) - 1) << 1;
+        names = new String[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        entries.forEach((name, value) -> {
+            int slot = mix(name.hashCode()) & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = name;
+            values[slot] = value;
+        });
+    }
+
+    public static <V> TopicNameIndex<V> of(Map<String, ? extends V> entries) {
+        return new TopicNameIndex<>(entries);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(MqttTopic topic, int level) {
+        int slot = mix(topic.hash(level)) & mask;
+        while (names[slot] != null) {
+            if (topic.levelEquals(level, names[slot])) {
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(char[] text, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + text[i];
+        }
+        int slot = mix(hash) & mask;
+        while (names[slot] != null) {
+            if (equals(names[slot], text, offset, length)) {
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static boolean equals(String name, char[] text, int offset, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != text[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
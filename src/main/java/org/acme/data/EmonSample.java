@@ -0,0 +1,4 @@
+package org.acme.data;
+
+public record EmonSample(long time, String device, String key, double value) {
+}
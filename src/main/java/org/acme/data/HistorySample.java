@@ -0,0 +1,4 @@
+package org.acme.data;
+
+public record HistorySample(long time, double value) {
+}
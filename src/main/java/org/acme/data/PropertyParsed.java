@@ -1,4 +0,0 @@
-package org.acme.data;
-
-public record PropertyParsed(String name, String id, Object value) {
-}
@@ -0,0 +1,120 @@
+package org.acme;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class BridgeMetricsTest {
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final BridgeMetrics metrics = new BridgeMetrics(registry);
+
+    private double count(String name, String... tags) {
+        return registry.get(name).tags(tags).counter().count();
+    }
+
+    @Test
+    public void testRegisteredUpFront() {
+        Set<String> names = registry.getMeters().stream()
+                .map(meter -> meter.getId().getName())
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("mqtt.messages.unrouted", "mqtt.ingress.dropped", "mqtt.messages.forwarded",
+                "emon.requests.retries", "emon.requests", "emon.requests.latency"), names);
+        for (String endpoint : List.of("post", "bulk")) {
+            for (String status : List.of("error", "1xx", "2xx", "3xx", "4xx", "5xx")) {
+                assertEquals(0, count("emon.requests", "endpoint", endpoint, "status", status));
+            }
+            assertEquals(0, registry.get("emon.requests.latency").tag("endpoint", endpoint).timer().count());
+        }
+    }
+
+    @Test
+    public void testCounters() {
+        metrics.unrouted();
+        metrics.forwarded();
+        metrics.forwarded();
+        metrics.retried();
+        metrics.ingressDropped(3);
+        assertEquals(1, count("mqtt.messages.unrouted"));
+        assertEquals(2, count("mqtt.messages.forwarded"));
+        assertEquals(1, count("emon.requests.retries"));
+        assertEquals(3, count("mqtt.ingress.dropped"));
+    }
+
+    @Test
+    public void testPostByStatus() {
+        long start = System.nanoTime();
+        metrics.post().answered(start, 200);
+        metrics.post().answered(start, 201);
+        metrics.post().answered(start, 503);
+        metrics.post().answered(start, 999);
+        metrics.post().failed(start);
+        metrics.bulk().answered(start, 404);
+        assertEquals(2, count("emon.requests", "endpoint", "post", "status", "2xx"));
+        assertEquals(1, count("emon.requests", "endpoint", "post", "status", "5xx"));
+        assertEquals(2, count("emon.requests", "endpoint", "post", "status", "error"));
+        assertEquals(1, count("emon.requests", "endpoint", "bulk", "status", "4xx"));
+        assertEquals(0, count("emon.requests", "endpoint", "bulk", "status", "2xx"));
+        assertEquals(5, registry.get("emon.requests.latency").tag("endpoint", "post").timer().count());
+        assertEquals(1, registry.get("emon.requests.latency").tag("endpoint", "bulk").timer().count());
+    }
+
+    @Test
+    public void testSubscriber() {
+        BridgeMetrics.Subscriber subscriber = metrics.subscriber("alfen");
+        assertSame(subscriber, metrics.subscriber("alfen"));
+        subscriber.received();
+        subscriber.received();
+        subscriber.parseFailed();
+        subscriber.consumed(System.nanoTime());
+        assertEquals(2, count("mqtt.messages.received", "subscriber", "alfen"));
+        assertEquals(1, count("mqtt.messages.parse.failures", "subscriber", "alfen"));
+        assertEquals(1, registry.get("mqtt.messages.consume").tag("subscriber", "alfen").timer().count());
+    }
+
+    @Test
+    public void testPercentileHistograms() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        Set<String> histograms = new HashSet<>();
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (Boolean.TRUE.equals(config.isPercentileHistogram())) {
+                    histograms.add(id.getName() + id.getTags());
+                }
+                return config;
+            }
+        });
+        new BridgeMetrics(registry).subscriber("alfen");
+        assertEquals(Set.of("emon.requests.latency[tag(endpoint=bulk)]", "emon.requests.latency[tag(endpoint=post)]",
+                "mqtt.messages.consume[tag(subscriber=alfen)]"), histograms);
+    }
+
+    @Test
+    public void testGauges() {
+        AtomicInteger depth = new AtomicInteger(7);
+        metrics.ingressQueue("0", depth, AtomicInteger::get);
+        metrics.ingressConflated("0", depth, d -> 2);
+        metrics.cache("alfen", depth, d -> 1, d -> 5).record(4);
+        assertEquals(7, registry.get("mqtt.ingress.depth").tag("connection", "0").gauge().value());
+        assertEquals(2, registry.get("mqtt.ingress.conflated").tag("connection", "0").functionCounter().count());
+        assertEquals(1, registry.get("emon.cache.pending.devices").tag("cache", "alfen").gauge().value());
+        assertEquals(5, registry.get("emon.cache.pending.keys").tag("cache", "alfen").gauge().value());
+        assertEquals(1, registry.get("emon.cache.flush.keys").tag("cache", "alfen").summary().count());
+        Meter.Id id = registry.get("emon.cache.flush.keys").summary().getId();
+        assertEquals(Tags.of(Tag.of("cache", "alfen")), Tags.of(id.getTags()));
+    }
+}
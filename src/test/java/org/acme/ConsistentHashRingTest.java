@@ -0,0 +1,45 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConsistentHashRingTest {
+
+    @Test
+    public void testSpreadsKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c"), 64);
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            owned.merge(ring.owner("alfen/meter" + i), 1, Integer::sum);
+        }
+        assertEquals(3, owned.size());
+        owned.values().forEach(count -> assertTrue(count > 600, owned.toString()));
+    }
+
+    @Test
+    public void testJoiningNodeOnlyTakesKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("a", "b", "c"), 64);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("a", "b", "c", "d"), 64);
+        int moved = 0;
+        for (int i = 0; i < 3000; i++) {
+            String key = "qbus/controller" + i;
+            if (!before.owner(key).equals(after.owner(key))) {
+                assertEquals("d", after.owner(key));
+                moved++;
+            }
+        }
+        assertTrue(moved > 400 && moved < 1200, "moved " + moved);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull(new ConsistentHashRing(List.of(), 64).owner("evcc"));
+    }
+}
@@ -0,0 +1,87 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmonCircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong();
+    private final EmonCircuitBreaker breaker = new EmonCircuitBreaker(3, 1000, now::get);
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(EmonCircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testSingleProbe() {
+        open();
+        now.addAndGet(1000);
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.onSuccess());
+        assertEquals(EmonCircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.onSuccess());
+    }
+
+    @Test
+    public void testFailedProbeReopens() {
+        open();
+        now.addAndGet(1000);
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(EmonCircuitBreaker.State.OPEN, breaker.state());
+        now.addAndGet(999);
+        assertFalse(breaker.allowRequest());
+        now.addAndGet(1);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testProbeWithoutOutcomeExpires() {
+        open();
+        now.addAndGet(1000);
+        assertTrue(breaker.allowRequest());
+        now.addAndGet(999);
+        assertFalse(breaker.allowRequest());
+        now.addAndGet(1);
+        // the probe never reported back, the next request probes
+        assertTrue(breaker.allowRequest());
+        assertEquals(EmonCircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testAbandonedProbe() {
+        open();
+        now.addAndGet(1000);
+        assertTrue(breaker.allowRequest());
+        breaker.onAbandoned();
+        assertEquals(EmonCircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.onSuccess());
+        // requests abandoned while closed change nothing
+        breaker.onAbandoned();
+        assertEquals(EmonCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        assertFalse(breaker.allowRequest());
+    }
+}
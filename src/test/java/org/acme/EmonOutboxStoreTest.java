@@ -0,0 +1,64 @@
+package org.acme;
+
+import org.acme.data.EmonSample;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmonOutboxStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testAppendPeekCommit() throws Exception {
+        Path file = dir.resolve("outbox.dat");
+        try (EmonOutboxStore store = new EmonOutboxStore(file, 4096)) {
+            store.append(new EmonSample(1000, "slimmelezer", "power_consumed", 230.5));
+            store.append(new EmonSample(2000, "alfen1", "meter1_power", 1200));
+            EmonOutboxStore.Batch batch = store.peek(1);
+            assertEquals(List.of(new EmonSample(1000, "slimmelezer", "power_consumed", 230.5)), batch.samples());
+            store.commit(batch);
+            assertEquals(1, store.count());
+        }
+        try (EmonOutboxStore store = new EmonOutboxStore(file, 4096)) {
+            assertEquals(List.of(new EmonSample(2000, "alfen1", "meter1_power", 1200)), store.peek(10).samples());
+        }
+    }
+
+    @Test
+    public void testEvictsOldest() throws Exception {
+        try (EmonOutboxStore store = new EmonOutboxStore(dir.resolve("outbox.dat"), 1024)) {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(store.append(new EmonSample(i, "slimmelezer", "power_consumed", i)));
+            }
+            assertTrue(store.evicted() > 0);
+            assertEquals(1000, store.count() + store.evicted());
+            List<EmonSample> samples = store.peek(Integer.MAX_VALUE).samples();
+            assertEquals(store.count(), samples.size());
+            for (int i = 0; i < samples.size(); i++) {
+                assertEquals(1000 - samples.size() + i, samples.get(i).time());
+            }
+        }
+    }
+
+    @Test
+    public void testCommitAfterEviction() throws Exception {
+        try (EmonOutboxStore store = new EmonOutboxStore(dir.resolve("outbox.dat"), 1024)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(new EmonSample(i, "slimmelezer", "power_consumed", i));
+            }
+            EmonOutboxStore.Batch batch = store.peek(5);
+            for (int i = 10; i < 30; i++) {
+                store.append(new EmonSample(i, "slimmelezer", "power_consumed", i));
+            }
+            long firstAfterBatch = Math.max(5, store.evicted());
+            store.commit(batch);
+            assertEquals(firstAfterBatch, store.peek(1).samples().getFirst().time());
+        }
+    }
+}
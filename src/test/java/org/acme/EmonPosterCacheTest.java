@@ -0,0 +1,90 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmonPosterCacheTest {
+    private final Vertx vertx = Vertx.vertx();
+
+    @AfterEach
+    public void close() {
+        vertx.close();
+    }
+
+    private EmonPosterCache cache() {
+        SmallRyeConfig config = new SmallRyeConfigBuilder()
+                .withSources(new PropertiesConfigSource(Map.of("emoncms.endpoint", "http://localhost",
+                        "emoncms.apikey", "key", "emoncms.aggregation.power", "count"), "test", 100))
+                .withConverter(Duration.class, 100, new DurationConverter())
+                .withMapping(EmoncmsConfig.class)
+                .withMapping(HistoryConfig.class)
+                .build();
+        EmoncmsConfig emoncmsConfig = config.getConfigMapping(EmoncmsConfig.class);
+        BridgeMetrics metrics = new BridgeMetrics(new SimpleMeterRegistry());
+        FlushScheduler flushScheduler = new FlushScheduler(vertx, emoncmsConfig);
+        EmonPoster poster = new EmonPoster(new ObjectMapper(), emoncmsConfig, vertx, new EmonOutbox(emoncmsConfig),
+                metrics, flushScheduler, new EmonTransport(vertx, emoncmsConfig, metrics));
+        return new EmonPosterCache(flushScheduler, poster, new EmonBulkPoster(flushScheduler, poster, emoncmsConfig),
+                metrics, emoncmsConfig, new History(config.getConfigMapping(HistoryConfig.class)));
+    }
+
+    @Test
+    public void testConcurrentAddAndDrain() throws InterruptedException {
+        EmonPosterCache cache = cache();
+        int writers = 4;
+        int values = 20_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            String device = "device" + w;
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < values; i++) {
+                    cache.add(device, Map.of("feed" + i, i, "power", 1));
+                }
+            }));
+        }
+        Set<String> drained = new HashSet<>();
+        long counted = 0;
+        start.countDown();
+        boolean running = true;
+        while (running) {
+            running = threads.stream().anyMatch(Thread::isAlive);
+            for (Map.Entry<String, Map<String, Object>> device : cache.drain().entrySet()) {
+                for (Map.Entry<String, Object> value : device.getValue().entrySet()) {
+                    if (value.getKey().equals("power_count")) {
+                        counted += ((Number) value.getValue()).longValue();
+                    } else {
+                        // every feed is written once, so it may only be drained once
+                        assertTrue(drained.add(device.getKey() + "/" + value.getKey()), value.getKey());
+                    }
+                }
+            }
+        }
+        assertEquals(writers * values, drained.size());
+        assertEquals(writers * values, counted);
+    }
+}
@@ -0,0 +1,350 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmonPosterTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Vertx vertx = Vertx.vertx();
+    private EmoncmsStandIn emoncms;
+    private BridgeMetrics metrics;
+
+    @AfterEach
+    public void close() throws Exception {
+        if (emoncms != null) {
+            emoncms.close();
+        }
+        vertx.close();
+    }
+
+    /**
+     * A poster wired by hand against the emoncms stand-in, without retries unless configured.
+     */
+    private EmonPoster poster(Map<String, String> overrides) throws Exception {
+        emoncms = new EmoncmsStandIn(vertx);
+        Map<String, String> properties = new HashMap<>();
+        properties.put("emoncms.endpoint", emoncms.endpoint());
+        properties.put("emoncms.apikey", "key");
+        properties.put("emoncms.retry.max-attempts", "1");
+        properties.putAll(overrides);
+        EmoncmsConfig config = new SmallRyeConfigBuilder()
+                .withSources(new PropertiesConfigSource(properties, "test", 100))
+                .withConverter(Duration.class, 100, new DurationConverter())
+                .withMapping(EmoncmsConfig.class)
+                .build()
+                .getConfigMapping(EmoncmsConfig.class);
+        metrics = new BridgeMetrics(new SimpleMeterRegistry());
+        EmonPoster poster = new EmonPoster(objectMapper, config, vertx, new EmonOutbox(config), metrics,
+                new FlushScheduler(vertx, config), new EmonTransport(vertx, config, metrics));
+        poster.onStart(null);
+        return poster;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> posts) throws Exception {
+        CompletableFuture.allOf(posts.toArray(CompletableFuture<?>[]::new))
+                .handle((r, e) -> null)
+                .get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testBulkData() {
+        List<EmonPoster.BulkEntry> entries = List.of(
+                new EmonPoster.BulkEntry(0, "alfen1", Map.of("meter1_power", 1200.5)),
+                new EmonPoster.BulkEntry(-10, "qbus-switch", Map.of("kitchen", 1)));
+        List<String> data = EmonPoster.getBulkData(objectMapper, entries, 65536);
+        assertEquals(List.of("[[0,\"alfen1\",{\"meter1_power\":1200.5}],[-10,\"qbus-switch\",{\"kitchen\":1}]]"), data);
+    }
+
+    @Test
+    public void testBulkDataSplit() throws Exception {
+        Map<String, Object> slimmelezer = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            slimmelezer.put("power_consumed_" + i, 1000.0 + i);
+        }
+        List<EmonPoster.BulkEntry> entries = List.of(
+                new EmonPoster.BulkEntry(0, "slimmelezer", slimmelezer),
+                new EmonPoster.BulkEntry(0, "alfen1", Map.of("meter1_power", 1200.5)));
+        List<String> data = EmonPoster.getBulkData(objectMapper, entries, 300);
+        assertTrue(data.size() > 1);
+        int fields = 0;
+        for (String request : data) {
+            assertTrue(URLEncoder.encode(request, StandardCharsets.UTF_8).length() <= 300, request);
+            for (JsonNode entry : objectMapper.readTree(request)) {
+                fields += entry.get(2).size();
+            }
+        }
+        assertEquals(51, fields);
+    }
+
+    @Test
+    public void testBulkRequestsCarryTheirValues() throws Exception {
+        Map<String, Object> slimmelezer = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            slimmelezer.put("power_consumed_" + i, 1000.0 + i);
+        }
+        List<EmonPoster.BulkEntry> entries = List.of(
+                new EmonPoster.BulkEntry(0, "slimmelezer", slimmelezer),
+                new EmonPoster.BulkEntry(0, "alfen1", Map.of("meter1_power", 1200.5)));
+        List<EmonPoster.BulkRequest> requests = EmonPoster.getBulkRequests(objectMapper, entries, 300);
+        assertTrue(requests.size() > 1);
+        Map<String, Map<String, Object>> all = new LinkedHashMap<>();
+        for (EmonPoster.BulkRequest request : requests) {
+            // the values of a request are exactly those in its data
+            Map<String, Map<String, Object>> inData = new LinkedHashMap<>();
+            for (JsonNode entry : objectMapper.readTree(request.data())) {
+                entry.get(2).properties().forEach(field -> inData
+                        .computeIfAbsent(entry.get(1).asText(), d -> new LinkedHashMap<>())
+                        .put(field.getKey(), field.getValue().numberValue()));
+            }
+            assertEquals(inData, request.values());
+            request.values().forEach((device, values) ->
+                    all.computeIfAbsent(device, d -> new LinkedHashMap<>()).putAll(values));
+        }
+        assertEquals(Map.of("slimmelezer", slimmelezer, "alfen1", Map.of("meter1_power", 1200.5)), all);
+    }
+
+    @Test
+    public void testRetryClassification() {
+        assertNull(EmonPoster.rejected(200, "ok"));
+        assertNull(EmonPoster.rejected(200, ""));
+        for (int status : new int[]{500, 502, 503, 408, 429}) {
+            assertTrue(EmonPoster.unavailable(status));
+            assertTrue(EmonPoster.rejected(status, "").retryable(), Integer.toString(status));
+        }
+        for (int status : new int[]{400, 401, 404}) {
+            assertFalse(EmonPoster.unavailable(status));
+            assertFalse(EmonPoster.rejected(status, "").retryable(), Integer.toString(status));
+        }
+        assertFalse(EmonPoster.rejected(200, "{\"success\": false, \"message\": \"Invalid node\"}").retryable());
+        assertFalse(EmonPoster.rejected(200, "Error: apikey invalid").retryable());
+
+        assertTrue(EmonPoster.retryable(new CompletionException(EmonPoster.rejected(503, ""))));
+        assertFalse(EmonPoster.retryable(new CompletionException(EmonPoster.rejected(400, ""))));
+        assertFalse(EmonPoster.retryable(new IllegalStateException()));
+    }
+
+    @Test
+    public void testPipelinesKeepTheirOrderWhileTheBreakerIsOpen() throws Exception {
+        EmonPoster poster = poster(Map.of("emoncms.max-in-flight", "2",
+                "emoncms.circuit-breaker.failure-threshold", "1",
+                "emoncms.circuit-breaker.open-duration", "500ms"));
+        emoncms.hold();
+        emoncms.answer(503, "");
+        List<CompletableFuture<Void>> posts = new ArrayList<>();
+        Map<String, List<Integer>> completed = new ConcurrentHashMap<>();
+        List<String> devices = List.of("a", "b", "c", "d");
+        // a and b take the in-flight slots, everything after waits behind them or in the limiter
+        for (int i = 0; i < 4; i++) {
+            for (String device : i == 0 ? devices.subList(0, 2) : devices) {
+                int sequence = i;
+                posts.add(poster.post(device, Map.of("seq", i)).whenComplete((r, e) ->
+                        completed.computeIfAbsent(device, d -> new ArrayList<>()).add(sequence)));
+            }
+            if (i == 0) {
+                await(() -> emoncms.requests() == 2);
+            }
+        }
+        // the answers open the breaker, the waiting requests fail without being sent
+        emoncms.release();
+        awaitAll(posts);
+        assertTrue(posts.stream().allMatch(CompletableFuture::isCompletedExceptionally));
+        assertEquals(2, emoncms.requests());
+        for (String device : devices) {
+            List<Integer> order = completed.get(device);
+            assertEquals(order.stream().sorted().toList(), order, device);
+        }
+
+        // no in-flight slot leaked: once the probe passed, more requests than slots all go out
+        Thread.sleep(600);
+        emoncms.accept();
+        poster.post("probe", Map.of("seq", 0)).get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        List<CompletableFuture<Void>> after = new ArrayList<>();
+        for (String device : devices) {
+            after.add(poster.post(device, Map.of("seq", 9)));
+        }
+        awaitAll(after);
+        assertTrue(after.stream().noneMatch(CompletableFuture::isCompletedExceptionally));
+    }
+
+    @Test
+    public void testVirtualThreadsWaitForPermits() throws Exception {
+        EmonPoster poster = poster(Map.of("emoncms.execution", "virtual-threads", "emoncms.max-in-flight", "2"));
+        emoncms.hold();
+        List<CompletableFuture<Void>> posts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            posts.add(poster.post("device" + i, Map.of("power", i)));
+        }
+        await(() -> emoncms.requests() == 2);
+        Thread.sleep(200);
+        assertEquals(2, emoncms.requests());
+        emoncms.release();
+        awaitAll(posts);
+        assertTrue(posts.stream().noneMatch(CompletableFuture::isCompletedExceptionally));
+        assertEquals(5, emoncms.requests());
+    }
+
+    @Test
+    public void testProbeInterruptedWaitingForAPermit() throws Exception {
+        EmonPoster poster = poster(Map.of("emoncms.execution", "virtual-threads", "emoncms.max-in-flight", "1",
+                "emoncms.circuit-breaker.failure-threshold", "1",
+                "emoncms.circuit-breaker.open-duration", "300ms"));
+        emoncms.hold();
+        CompletableFuture<Void> inFlight = poster.post("a", Map.of("power", 1));
+        await(() -> emoncms.requests() == 1);
+        EmonCircuitBreaker breaker = poster.circuitBreaker();
+        breaker.onFailure();
+        Thread.sleep(350);
+        assertTrue(breaker.allowRequest());
+        assertEquals(EmonCircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        // the probe waits for the permit the request in flight holds
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(emoncms.endpoint() + "/input/post")).build();
+        Thread probe = Thread.ofVirtual().start(() -> {
+            try {
+                poster.sendBlocking(request, metrics.post());
+            } catch (RuntimeException e) {
+                failure.set(e);
+            }
+        });
+        await(() -> probe.getState() == Thread.State.WAITING);
+        probe.interrupt();
+        probe.join(TIMEOUT.toMillis());
+        assertInstanceOf(EmoncmsException.class, failure.get());
+        // the abandoned probe is handed on right away instead of waiting out the open duration
+        assertEquals(EmonCircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.allowRequest());
+
+        emoncms.release();
+        inFlight.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private Map<String, Double> received(String device) {
+        Map<String, Double> values = new HashMap<>();
+        for (EmoncmsStandIn.Sample sample : emoncms.samples()) {
+            if (sample.device().equals(device)) {
+                values.put(sample.feed(), sample.value());
+            }
+        }
+        return values;
+    }
+
+    @Test
+    public void testRetriesStopOnceTheBreakerOpens() throws Exception {
+        EmonPoster poster = poster(Map.of("emoncms.retry.max-attempts", "5",
+                "emoncms.retry.initial-backoff", "10ms",
+                "emoncms.circuit-breaker.failure-threshold", "2"));
+        emoncms.answer(503, "");
+        CompletableFuture<Void> post = poster.post("a", Map.of("power", 1));
+        awaitAll(List.of(post));
+        assertTrue(post.isCompletedExceptionally());
+        assertEquals(2, emoncms.requests());
+        assertEquals(EmonCircuitBreaker.State.OPEN, poster.circuitBreaker().state());
+
+        CompletableFuture<Void> rejected = poster.post("b", Map.of("power", 1));
+        awaitAll(List.of(rejected));
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(2, emoncms.requests());
+    }
+
+    @Test
+    public void testFailedValuesCoalesce() throws Exception {
+        EmonPoster poster = poster(Map.of("emoncms.circuit-breaker.failure-threshold", "0"));
+        emoncms.answer(503, "");
+        awaitAll(List.of(poster.post("a", Map.of("power", 1, "energy", 10))));
+        awaitAll(List.of(poster.post("a", Map.of("power", 2))));
+        emoncms.accept();
+        poster.post("a", Map.of("current", 3)).get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        // the newest value of every feed, in a single request
+        assertEquals(Map.of("power", 2.0, "energy", 10.0, "current", 3.0), received("a"));
+        assertEquals(3, emoncms.samples().size());
+    }
+
+    @Test
+    public void testSingleProbeSendsTheKeptValues() throws Exception {
+        EmonPoster poster = poster(Map.of("emoncms.circuit-breaker.failure-threshold", "1",
+                "emoncms.circuit-breaker.open-duration", "300ms"));
+        emoncms.answer(503, "");
+        awaitAll(List.of(poster.post("a", Map.of("power", 1))));
+        // the breaker is open, this one isn't sent
+        awaitAll(List.of(poster.post("b", Map.of("power", 2))));
+        assertEquals(1, emoncms.requests());
+
+        Thread.sleep(350);
+        emoncms.accept();
+        emoncms.hold();
+        CompletableFuture<Void> probe = poster.post("c", Map.of("power", 3));
+        CompletableFuture<Void> rejected = poster.post("d", Map.of("power", 4));
+        awaitAll(List.of(rejected));
+        assertTrue(rejected.isCompletedExceptionally());
+        await(() -> emoncms.requests() == 2);
+        Thread.sleep(100);
+        assertEquals(2, emoncms.requests());
+        emoncms.release();
+        probe.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        assertEquals(EmonCircuitBreaker.State.CLOSED, poster.circuitBreaker().state());
+        // the values kept while emoncms failed follow the probe without waiting for new posts
+        await(() -> emoncms.samples().size() == 4);
+        assertEquals(Map.of("power", 1.0), received("a"));
+        assertEquals(Map.of("power", 2.0), received("b"));
+        assertEquals(Map.of("power", 4.0), received("d"));
+    }
+
+    @Test
+    public void testRefusedValuesAreDropped() throws Exception {
+        EmonPoster poster = poster(Map.of("emoncms.retry.max-attempts", "3",
+                "emoncms.retry.initial-backoff", "10ms"));
+        emoncms.answer(200, "{\"success\": false, \"message\": \"Invalid node\"}");
+        CompletableFuture<Void> refused = poster.post("a", Map.of("power", 1));
+        awaitAll(List.of(refused));
+        assertTrue(refused.isCompletedExceptionally());
+        Thread.sleep(100);
+        assertEquals(1, emoncms.requests());
+        assertEquals(EmonCircuitBreaker.State.CLOSED, poster.circuitBreaker().state());
+
+        emoncms.accept();
+        poster.post("a", Map.of("energy", 2)).get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        assertEquals(Map.of("energy", 2.0), received("a"));
+    }
+}
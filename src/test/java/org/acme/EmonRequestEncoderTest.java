@@ -0,0 +1,46 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class EmonRequestEncoderTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EmonRequestEncoder encoder = new EmonRequestEncoder(objectMapper, "ab+cd/ef");
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testPostMatchesUrlEncoder() throws Exception {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("meter1_power", 1200.5);
+        values.put("meter1_energy", 1.0E10);
+        values.put("kitchen light", 100);
+        values.put("négatif", -42L);
+        values.put("min", Long.MIN_VALUE);
+        values.put("on", true);
+        values.put("status \"ok\"", "charging & ready");
+        values.put("nan", Double.NaN);
+        values.put("missing", null);
+        for (int i = 0; i < 2; i++) {
+            String body = new String(encoder.post("alfen 1", values), StandardCharsets.US_ASCII);
+            assertEquals("node=" + encode("alfen 1") + "&apikey=" + encode("ab+cd/ef")
+                    + "&fulljson=" + encode(objectMapper.writeValueAsString(values)), body);
+        }
+    }
+
+    @Test
+    public void testBulk() {
+        String data = "[[0,\"alfen1\",{\"meter1_power\":1200.5}]]";
+        String body = new String(encoder.bulk(Map.of("time", "1700000000"), data), StandardCharsets.US_ASCII);
+        assertEquals("time=1700000000&apikey=" + encode("ab+cd/ef") + "&data=" + encode(data), body);
+    }
+}
@@ -0,0 +1,166 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for emoncms: accepts /input/post and /input/bulk like emoncms does and records every
+ * sample with the time it arrived.
+ */
+final class EmoncmsStandIn implements AutoCloseable {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final Queue<Sample> samples = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final Queue<Runnable> held = new ConcurrentLinkedQueue<>();
+    private volatile boolean holding;
+    private volatile Answer answer;
+
+    /**
+     * What the stand-in answers instead of accepting the input, see {@link #answer(int, String)}.
+     */
+    private record Answer(int status, String body) {
+    }
+
+    record Sample(String device, String feed, double value, long arrivalNanos) {
+    }
+
+    EmoncmsStandIn(Vertx vertx) throws Exception {
+        server = vertx.createHttpServer().requestHandler(this::handle);
+        server.listen(0).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    int port() {
+        return server.actualPort();
+    }
+
+    String endpoint() {
+        return "http://localhost:" + port() + "/emoncms";
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    List<Sample> samples() {
+        return List.copyOf(samples);
+    }
+
+    /**
+     * Answers the next requests with this status and body, their samples aren't recorded.
+     */
+    void answer(int status, String body) {
+        answer = new Answer(status, body);
+    }
+
+    /**
+     * Accepts the input of the next requests again.
+     */
+    void accept() {
+        answer = null;
+    }
+
+    /**
+     * Keeps the answers of the next requests back until {@link #release()}.
+     */
+    void hold() {
+        holding = true;
+    }
+
+    void release() {
+        holding = false;
+        Runnable next;
+        while ((next = held.poll()) != null) {
+            next.run();
+        }
+    }
+
+    /**
+     * Arrival time of the latest sample, 0 when none arrived yet.
+     */
+    long lastArrival() {
+        long last = 0;
+        for (Sample sample : samples) {
+            last = Math.max(last, sample.arrivalNanos());
+        }
+        return last;
+    }
+
+    private void handle(HttpServerRequest request) {
+        request.body().onSuccess(body -> {
+            long arrival = System.nanoTime();
+            if (holding) {
+                held.add(() -> answer(request, body, arrival));
+                // a release may have run just before this request was held
+                if (!holding) {
+                    release();
+                }
+            } else {
+                answer(request, body, arrival);
+            }
+            requests.incrementAndGet();
+        });
+    }
+
+    private void answer(HttpServerRequest request, Buffer body, long arrival) {
+        Answer answer = this.answer;
+        if (answer != null) {
+            request.response().setStatusCode(answer.status()).end(answer.body());
+            return;
+        }
+        try {
+            Map<String, String> form = parseForm(body);
+            if (request.path().endsWith("/input/post")) {
+                record(form.get("node"), objectMapper.readTree(form.get("fulljson")), arrival);
+            } else if (request.path().endsWith("/input/bulk")) {
+                // [[offset,"device",{"key":value,...}],...]
+                for (JsonNode entry : objectMapper.readTree(form.get("data"))) {
+                    record(entry.get(1).asText(), entry.get(2), arrival);
+                }
+            } else if (!request.path().endsWith("/describe")) {
+                request.response().setStatusCode(404).end();
+                return;
+            }
+            request.response().end("ok");
+        } catch (IOException | RuntimeException e) {
+            request.response().setStatusCode(400).end("Error: " + e.getMessage());
+        }
+    }
+
+    private void record(String device, JsonNode values, long arrival) {
+        values.properties().forEach(field ->
+                samples.add(new Sample(device, field.getKey(), field.getValue().asDouble(), arrival)));
+    }
+
+    private static Map<String, String> parseForm(Buffer body) {
+        Map<String, String> form = new HashMap<>();
+        for (String parameter : body.toString(StandardCharsets.US_ASCII).split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                form.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return form;
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
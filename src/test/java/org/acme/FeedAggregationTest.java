@@ -0,0 +1,44 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.acme.EmoncmsConfig.Aggregation.COUNT;
+import static org.acme.EmoncmsConfig.Aggregation.LAST;
+import static org.acme.EmoncmsConfig.Aggregation.MAX;
+import static org.acme.EmoncmsConfig.Aggregation.MEAN;
+import static org.acme.EmoncmsConfig.Aggregation.MIN;
+import static org.acme.EmoncmsConfig.Aggregation.SUM;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FeedAggregationTest {
+
+    @Test
+    public void testAggregates() {
+        FeedAggregation aggregation = new FeedAggregation("power", List.of(LAST, MEAN, MIN, MAX, SUM, COUNT, MAX));
+        FeedAggregation.Accumulator accumulator = aggregation.newAccumulator();
+        for (double value : new double[]{0.4, 2.6, -1.0, 1.0}) {
+            accumulator.add(value);
+        }
+        Map<String, Object> values = new HashMap<>();
+        accumulator.writeTo(values);
+        assertEquals(Map.of(
+                "power", 1.0,
+                "power_mean", 0.75,
+                "power_min", -1.0,
+                "power_max", 2.6,
+                "power_sum", 3.0,
+                "power_count", 4L), values);
+    }
+
+    @Test
+    public void testEmptyWindow() {
+        Map<String, Object> values = new HashMap<>();
+        new FeedAggregation("power", List.of(MEAN)).newAccumulator().writeTo(values);
+        assertTrue(values.isEmpty());
+    }
+}
@@ -0,0 +1,57 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FeedFilterTest {
+    private static final long SILENCE = 1000;
+
+    @Test
+    public void testAbsoluteDeadband() {
+        FeedFilter filter = new FeedFilter(0.5, Double.NaN, false, SILENCE);
+        FeedFilter.LastSent last = new FeedFilter.LastSent();
+        assertTrue(filter.accept(last, 10, 0));
+        assertFalse(filter.accept(last, 10.4, 1));
+        // compared to the value last sent, not the last value seen
+        assertFalse(filter.accept(last, 9.6, 2));
+        assertTrue(filter.accept(last, 10.5, 3));
+        assertFalse(filter.accept(last, 10.5, 4));
+    }
+
+    @Test
+    public void testRelativeDeadband() {
+        FeedFilter filter = new FeedFilter(Double.NaN, 0.1, false, SILENCE);
+        FeedFilter.LastSent last = new FeedFilter.LastSent();
+        assertTrue(filter.accept(last, 200, 0));
+        assertFalse(filter.accept(last, 219, 1));
+        assertTrue(filter.accept(last, 221, 2));
+    }
+
+    @Test
+    public void testSuppressUnchanged() {
+        FeedFilter filter = new FeedFilter(Double.NaN, Double.NaN, true, SILENCE);
+        FeedFilter.LastSent last = new FeedFilter.LastSent();
+        assertTrue(filter.accept(last, 3, 0));
+        assertFalse(filter.accept(last, 3, 1));
+        assertTrue(filter.accept(last, 1, 2));
+    }
+
+    @Test
+    public void testMaxSilence() {
+        FeedFilter filter = new FeedFilter(Double.NaN, Double.NaN, true, SILENCE);
+        FeedFilter.LastSent last = new FeedFilter.LastSent();
+        assertTrue(filter.accept(last, 3, 0));
+        assertFalse(filter.accept(last, 3, SILENCE - 1));
+        assertTrue(filter.accept(last, 3, SILENCE));
+    }
+
+    @Test
+    public void testNoRules() {
+        FeedFilter filter = new FeedFilter(Double.NaN, Double.NaN, false, SILENCE);
+        FeedFilter.LastSent last = new FeedFilter.LastSent();
+        assertTrue(filter.accept(last, 3, 0));
+        assertTrue(filter.accept(last, 3, 1));
+    }
+}
@@ -0,0 +1,92 @@
+package org.acme;
+
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FlushSchedulerTest {
+    private static final long FAST = Duration.ofMillis(100).toNanos();
+    private static final long SLOW = Duration.ofSeconds(3).toNanos();
+    private final Vertx vertx = Vertx.vertx();
+    private final FlushScheduler scheduler = new FlushScheduler(vertx, new SmallRyeConfigBuilder()
+            .withSources(new PropertiesConfigSource(Map.of("emoncms.endpoint", "http://localhost",
+                    "emoncms.apikey", "key"), "test", 100))
+            .withConverter(Duration.class, 100, new DurationConverter())
+            .withMapping(EmoncmsConfig.class)
+            .build()
+            .getConfigMapping(EmoncmsConfig.class));
+
+    @AfterEach
+    public void close() {
+        vertx.close();
+    }
+
+    @Test
+    public void testOneAdjustmentPerFlush() {
+        for (int i = 0; i < 10; i++) {
+            scheduler.requestCompleted(FAST, false);
+        }
+        scheduler.requestCompleted(SLOW, false);
+        scheduler.requestCompleted(FAST, true);
+        scheduler.adjustBackoff();
+        assertEquals(2, scheduler.backoff());
+        // nothing completed since the previous flush
+        scheduler.adjustBackoff();
+        assertEquals(2, scheduler.backoff());
+        for (int i = 0; i < 10; i++) {
+            scheduler.requestCompleted(FAST, false);
+        }
+        scheduler.adjustBackoff();
+        assertEquals(1, scheduler.backoff());
+        scheduler.requestCompleted(FAST, false);
+        scheduler.adjustBackoff();
+        assertEquals(1, scheduler.backoff());
+    }
+
+    @Test
+    public void testBackoffIsCapped() {
+        for (int i = 0; i < 10; i++) {
+            scheduler.requestCompleted(0, true);
+            scheduler.adjustBackoff();
+        }
+        assertEquals(64, scheduler.backoff());
+    }
+
+    @Test
+    public void testConcurrentCompletions() throws InterruptedException {
+        int threads = 8;
+        int requests = 10_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < requests; i++) {
+                    scheduler.requestCompleted(SLOW, false);
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        scheduler.adjustBackoff();
+        assertEquals(2, scheduler.backoff());
+    }
+}
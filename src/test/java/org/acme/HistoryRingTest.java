@@ -0,0 +1,49 @@
+package org.acme;
+
+import org.acme.data.HistorySample;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HistoryRingTest {
+    @TempDir
+    Path dir;
+
+    private static List<HistorySample> query(HistoryRing ring, long from, long to, long step) {
+        List<HistorySample> samples = new ArrayList<>();
+        ring.query(from, to, step, (time, value) -> samples.add(new HistorySample(time, value)));
+        return samples;
+    }
+
+    @Test
+    public void testOverwritesOldestAndReopens() throws Exception {
+        Path file = dir.resolve("power_consumed.ring");
+        try (HistoryRing ring = new HistoryRing(file, 4)) {
+            for (int i = 1; i <= 6; i++) {
+                ring.append(i * 1000L, i);
+            }
+            assertEquals(4, ring.size());
+        }
+        try (HistoryRing ring = new HistoryRing(file, 4)) {
+            assertEquals(List.of(new HistorySample(3000, 3), new HistorySample(4000, 4),
+                    new HistorySample(5000, 5), new HistorySample(6000, 6)), query(ring, 0, Long.MAX_VALUE, 0));
+            assertEquals(List.of(new HistorySample(4000, 4), new HistorySample(5000, 5)), query(ring, 3500, 6000, 0));
+        }
+    }
+
+    @Test
+    public void testDownsample() throws Exception {
+        try (HistoryRing ring = new HistoryRing(dir.resolve("power.ring"), 100)) {
+            for (int i = 0; i < 10; i++) {
+                ring.append(i * 1000L, i);
+            }
+            assertEquals(List.of(new HistorySample(0, 1), new HistorySample(3000, 4),
+                    new HistorySample(6000, 7), new HistorySample(9000, 9)), query(ring, 0, Long.MAX_VALUE, 3000));
+        }
+    }
+}
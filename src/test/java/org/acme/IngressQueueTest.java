@@ -0,0 +1,103 @@
+package org.acme;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttProperties;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.mqtt.messages.MqttPublishMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IngressQueueTest {
+
+    private static MqttPublishMessage message(String topic, String payload) {
+        return MqttPublishMessage.create(0, MqttQoS.AT_MOST_ONCE, false, false, topic,
+                Unpooled.wrappedBuffer(payload.getBytes(StandardCharsets.UTF_8)), MqttProperties.NO_PROPERTIES);
+    }
+
+    private static List<String> drain(IngressQueue queue) {
+        List<MqttPublishMessage> batch = new ArrayList<>();
+        queue.drainTo(batch, 100);
+        return batch.stream().map(msg -> msg.topicName() + "=" + msg.payload().toString()).toList();
+    }
+
+    @Test
+    public void testDropPolicies() {
+        IngressQueue oldest = new IngressQueue(2, Long.MAX_VALUE, MqttConfig.Overflow.DROP_OLDEST);
+        IngressQueue newest = new IngressQueue(2, Long.MAX_VALUE, MqttConfig.Overflow.DROP_NEWEST);
+        int droppedOldest = 0;
+        int droppedNewest = 0;
+        for (int i = 0; i < 3; i++) {
+            droppedOldest += oldest.offer(message("evcc/loadpoints/1/chargePower", Integer.toString(i)));
+            droppedNewest += newest.offer(message("evcc/loadpoints/1/chargePower", Integer.toString(i)));
+        }
+        assertEquals(1, droppedOldest);
+        assertEquals(1, droppedNewest);
+        assertEquals(List.of("evcc/loadpoints/1/chargePower=1", "evcc/loadpoints/1/chargePower=2"), drain(oldest));
+        assertEquals(List.of("evcc/loadpoints/1/chargePower=0", "evcc/loadpoints/1/chargePower=1"), drain(newest));
+        assertEquals(0, oldest.size());
+    }
+
+    @Test
+    public void testConflate() {
+        IngressQueue queue = new IngressQueue(2, Long.MAX_VALUE, MqttConfig.Overflow.CONFLATE);
+        // below capacity every message is kept, for the aggregations
+        assertEquals(0, queue.offer(message("slimmelezer/sensor/power_consumed/state", "0.1")));
+        assertEquals(0, queue.offer(message("slimmelezer/sensor/power_consumed/state", "0.2")));
+        assertEquals(0, queue.conflated());
+        // full, the latest waiting message of the topic is replaced
+        assertEquals(0, queue.offer(message("slimmelezer/sensor/power_consumed/state", "0.3")));
+        assertEquals(1, queue.conflated());
+        assertEquals(List.of("slimmelezer/sensor/power_consumed/state=0.1",
+                "slimmelezer/sensor/power_consumed/state=0.3"), drain(queue));
+
+        // full, a topic that isn't waiting drops the oldest message
+        queue.offer(message("slimmelezer/sensor/power_consumed/state", "0.4"));
+        queue.offer(message("slimmelezer/sensor/power_produced/state", "0.0"));
+        assertEquals(1, queue.offer(message("evcc/loadpoints/1/chargePower", "7000")));
+        assertEquals(1, queue.conflated());
+        assertEquals(List.of("slimmelezer/sensor/power_produced/state=0.0",
+                "evcc/loadpoints/1/chargePower=7000"), drain(queue));
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        String payload = "x".repeat(1000);
+        String topic = "alfen/properties/alfen1/category/meter1";
+        // the same size for every topic below
+        long size = IngressQueue.bytes(message(topic + "0", payload));
+        IngressQueue oldest = new IngressQueue(100, 3 * size, MqttConfig.Overflow.DROP_OLDEST);
+        IngressQueue newest = new IngressQueue(100, 3 * size, MqttConfig.Overflow.DROP_NEWEST);
+        IngressQueue conflate = new IngressQueue(100, 3 * size, MqttConfig.Overflow.CONFLATE);
+        int droppedOldest = 0;
+        int droppedNewest = 0;
+        int droppedConflate = 0;
+        for (int i = 0; i < 5; i++) {
+            droppedOldest += oldest.offer(message(topic + "0", payload));
+            droppedNewest += newest.offer(message(topic + "0", payload));
+            droppedConflate += conflate.offer(message(topic + i, payload));
+        }
+        assertEquals(2, droppedOldest);
+        assertEquals(2, droppedNewest);
+        assertEquals(2, droppedConflate);
+        assertEquals(3, oldest.size());
+        assertEquals(3 * size, oldest.bytes());
+        assertEquals(3, newest.size());
+        assertEquals(3, conflate.size());
+        assertEquals(List.of(topic + "2=" + payload, topic + "3=" + payload, topic + "4=" + payload),
+                drain(conflate));
+        assertEquals(0, conflate.bytes());
+    }
+
+    @Test
+    public void testOversizedMessageIsQueuedAlone() {
+        IngressQueue queue = new IngressQueue(100, 10, MqttConfig.Overflow.DROP_NEWEST);
+        assertEquals(0, queue.offer(message("qbus/ctrl/info/outputs/switch", "[" + "x".repeat(100) + "]")));
+        assertEquals(1, queue.offer(message("qbus/ctrl/sensor/switch/1/state", "1")));
+        assertEquals(1, queue.size());
+    }
+}
@@ -0,0 +1,406 @@
+package org.acme;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfig;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.vertx.core.Vertx;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Drives generated meter traffic through the whole bridge: a {@link TrafficGenerator} publishes to an
+ * embedded {@link TestMqttBroker}, the subscribers, caches and posters are wired like the application
+ * does and post to an {@link EmoncmsStandIn}. Reports the throughput, the latency from publishing a
+ * value to its arrival at emoncms and the feeds whose last value never arrived.
+ * <p>
+ * The caches only post the latest value of a feed per flush, values replaced before a flush are
+ * conflated by design and not lost. A feed is lost when its last published value did not arrive.
+ * <p>
+ * Run with {@code ./gradlew loadTest -Pload="duration=60s alfen.meters=8"}, see {@link Options} for
+ * the settings.
+ */
+final class LoadHarness {
+    private static final DurationConverter DURATIONS = new DurationConverter();
+    // keeps the level, the logging manager only holds loggers weakly
+    private static final java.util.logging.Logger BRIDGE_LOG = java.util.logging.Logger.getLogger("org.acme");
+
+    /**
+     * @param duration        how long traffic is published
+     * @param flushInterval   flush interval of the caches, and of the bulk poster when enabled
+     * @param settle          how long to wait for the last values after publishing stopped
+     * @param bulk            post through /input/bulk instead of /input/post
+     * @param connections     MQTT connections of the bridge
+     * @param shape           how the messages are spread over time
+     * @param burstEvery      interval of the bursts with {@link TrafficGenerator.Shape#BURST}
+     * @param alfenMeters     Alfen meters, each publishing one category
+     * @param alfenProperties mapped properties per Alfen category
+     * @param alfenRate       Alfen messages per second over all meters
+     * @param qbusOutputs     Qbus switch outputs
+     * @param qbusRate        Qbus state messages per second over all outputs
+     * @param evccRate        Evcc messages per second over the fields of one loadpoint
+     * @param slimmelezerItems Slimmelezer items
+     * @param slimmelezerRate Slimmelezer messages per second over all items
+     */
+    record Options(Duration duration, Duration flushInterval, Duration settle, boolean bulk, int connections,
+                   TrafficGenerator.Shape shape, Duration burstEvery, int alfenMeters, int alfenProperties,
+                   double alfenRate, int qbusOutputs, double qbusRate, double evccRate, int slimmelezerItems,
+                   double slimmelezerRate) {
+
+        /**
+         * Options from {@code key=value} arguments, for instance {@code duration=60s alfen.rate=200}.
+         */
+        static Options parse(Map<String, String> args) {
+            Map<String, String> remaining = new HashMap<>(args);
+            Duration flushInterval = duration(remaining, "flush-interval", "1s");
+            Options options = new Options(
+                    duration(remaining, "duration", "10s"),
+                    flushInterval,
+                    duration(remaining, "settle", flushInterval.multipliedBy(5).toString()),
+                    Boolean.parseBoolean(remaining.getOrDefault("bulk", "false")),
+                    Integer.parseInt(remaining.getOrDefault("connections", "1")),
+                    TrafficGenerator.Shape.valueOf(remaining.getOrDefault("shape", "steady").toUpperCase(Locale.ROOT)),
+                    duration(remaining, "burst-every", "1s"),
+                    Integer.parseInt(remaining.getOrDefault("alfen.meters", "2")),
+                    Integer.parseInt(remaining.getOrDefault("alfen.properties", "10")),
+                    Double.parseDouble(remaining.getOrDefault("alfen.rate", "20")),
+                    Integer.parseInt(remaining.getOrDefault("qbus.outputs", "20")),
+                    Double.parseDouble(remaining.getOrDefault("qbus.rate", "50")),
+                    Double.parseDouble(remaining.getOrDefault("evcc.rate", "10")),
+                    Integer.parseInt(remaining.getOrDefault("slimmelezer.items", "8")),
+                    Double.parseDouble(remaining.getOrDefault("slimmelezer.rate", "20")));
+            remaining.keySet().removeAll(List.of("duration", "flush-interval", "settle", "bulk", "connections",
+                    "shape", "burst-every", "alfen.meters", "alfen.properties", "alfen.rate", "qbus.outputs",
+                    "qbus.rate", "evcc.rate", "slimmelezer.items", "slimmelezer.rate"));
+            if (!remaining.isEmpty()) {
+                throw new IllegalArgumentException("Unknown options " + remaining.keySet());
+            }
+            return options;
+        }
+
+        private static Duration duration(Map<String, String> args, String key, String defaultValue) {
+            return DURATIONS.convert(args.getOrDefault(key, defaultValue));
+        }
+    }
+
+    /**
+     * @param publishedMessages MQTT messages published
+     * @param publishedSamples  feed values in those messages
+     * @param receivedSamples   distinct feed values that arrived at emoncms
+     * @param duplicateSamples  feed values that arrived more than once
+     * @param requests          requests emoncms received
+     * @param feeds             feeds published
+     * @param lostFeeds         feeds whose last published value did not arrive
+     * @param elapsedNanos      from the first message published to the last value arrived
+     */
+    record Report(long publishedMessages, long publishedSamples, long receivedSamples, long duplicateSamples,
+                  long requests, int feeds, int lostFeeds, long elapsedNanos, long p50Nanos, long p99Nanos,
+                  long maxNanos) {
+
+        /**
+         * Distinct feed values arriving at emoncms per second.
+         */
+        double throughput() {
+            return elapsedNanos > 0 ? receivedSamples * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * Share of the published values replaced by a newer one before they were flushed.
+         */
+        double conflated() {
+            return publishedSamples > 0 ? 1 - (double) receivedSamples / publishedSamples : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, """
+                            published   %d messages, %d samples
+                            received    %d samples (%d duplicate) in %d requests, %.1f%% conflated
+                            throughput  %.1f samples/s
+                            latency     p50 %.1f ms, p99 %.1f ms, max %.1f ms
+                            lost        %d of %d feeds""",
+                    publishedMessages, publishedSamples, receivedSamples, duplicateSamples, requests,
+                    conflated() * 100, throughput(), p50Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6, lostFeeds,
+                    feeds);
+        }
+    }
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = Arrays.stream(args)
+                .map(arg -> arg.split("=", 2))
+                .collect(Collectors.toMap(arg -> arg[0], arg -> arg.length > 1 ? arg[1] : "true"));
+        BRIDGE_LOG.setLevel(Level.WARNING);
+        System.out.println(run(Options.parse(options)));
+    }
+
+    static Report run(Options options) throws Exception {
+        Vertx vertx = Vertx.vertx();
+        try (TestMqttBroker broker = new TestMqttBroker(vertx);
+             EmoncmsStandIn emoncms = new EmoncmsStandIn(vertx)) {
+            Bridge bridge = new Bridge(vertx, config(options, broker.port(), emoncms.endpoint()));
+            try (TrafficGenerator generator = new TrafficGenerator(vertx, broker.port(), profiles(options),
+                    options.duration(), options.shape(), options.burstEvery())) {
+                bridge.start();
+                await(() -> broker.subscriptions() == bridge.subscriptions(), Duration.ofSeconds(10));
+                long start = System.nanoTime();
+                generator.run().get(options.duration().toMillis() + 60_000, TimeUnit.MILLISECONDS);
+                settle(generator, emoncms, options.settle());
+                bridge.stop();
+                return report(generator, emoncms, start);
+            }
+        } finally {
+            vertx.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Waits until the last value of every feed arrived, or nothing arrived for the settle time.
+     */
+    private static void settle(TrafficGenerator generator, EmoncmsStandIn emoncms, Duration settle)
+            throws InterruptedException {
+        long published = System.nanoTime();
+        while (!missing(generator, emoncms.samples()).isEmpty()
+                && System.nanoTime() - Math.max(published, emoncms.lastArrival()) < settle.toNanos()) {
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Feeds whose last published value did not arrive yet.
+     */
+    private static Set<String> missing(TrafficGenerator generator, List<EmoncmsStandIn.Sample> samples) {
+        Map<String, Long> received = new HashMap<>();
+        for (EmoncmsStandIn.Sample sample : samples) {
+            received.merge(sample.device() + "/" + sample.feed(), (long) sample.value(), Math::max);
+        }
+        Set<String> missing = new HashSet<>();
+        for (String feed : generator.feeds()) {
+            if (received.getOrDefault(feed, 0L) < generator.lastPublished(feed)) {
+                missing.add(feed);
+            }
+        }
+        return missing;
+    }
+
+    private static Report report(TrafficGenerator generator, EmoncmsStandIn emoncms, long start) {
+        List<EmoncmsStandIn.Sample> samples = emoncms.samples();
+        Set<String> seen = new HashSet<>();
+        long[] latencies = new long[samples.size()];
+        int received = 0;
+        long duplicates = 0;
+        long last = start;
+        for (EmoncmsStandIn.Sample sample : samples) {
+            String feed = sample.device() + "/" + sample.feed();
+            long sequence = (long) sample.value();
+            long publishedAt = generator.publishedAt(feed, sequence);
+            if (publishedAt < 0) {
+                continue;
+            }
+            if (!seen.add(feed + "#" + sequence)) {
+                duplicates++;
+                continue;
+            }
+            latencies[received++] = sample.arrivalNanos() - publishedAt;
+            last = Math.max(last, sample.arrivalNanos());
+        }
+        long[] sorted = Arrays.copyOf(latencies, received);
+        Arrays.sort(sorted);
+        return new Report(generator.publishedMessages(), generator.publishedSamples(), received, duplicates,
+                emoncms.requests(), generator.feeds().size(), missing(generator, samples).size(), last - start,
+                percentile(sorted, 0.5), percentile(sorted, 0.99), received > 0 ? sorted[received - 1] : 0);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    /**
+     * Topics and payloads as published by the meters, the feeds are named after their topic level.
+     */
+    static List<TrafficGenerator.Profile> profiles(Options options) {
+        List<TrafficGenerator.Stream> alfen = IntStream.rangeClosed(1, options.alfenMeters())
+                .mapToObj(meter -> new TrafficGenerator.Stream("alfen/properties/alfen" + meter + "/category/meter1",
+                        IntStream.range(0, options.alfenProperties()).mapToObj(p -> "alfen" + meter + "/p" + p).toList(),
+                        sequence -> alfenProperties(options.alfenProperties(), sequence)))
+                .toList();
+        List<TrafficGenerator.Stream> qbus = IntStream.rangeClosed(1, options.qbusOutputs())
+                .mapToObj(id -> new TrafficGenerator.Stream("qbus/ctrl1/sensor/switch/" + id + "/state",
+                        List.of("qbus-switch/output" + id), Long::toString))
+                .toList();
+        String qbusInfo = IntStream.rangeClosed(1, options.qbusOutputs())
+                .mapToObj(id -> "{\"id\":" + id + ",\"name\":\"output" + id + "\"}")
+                .collect(Collectors.joining(",", "[", "]"));
+        List<TrafficGenerator.Stream> evcc = new ArrayList<>();
+        for (String field : List.of("chargeCurrent", "chargePower", "chargeTotalImport", "phasesActive")) {
+            evcc.add(new TrafficGenerator.Stream("evcc/loadpoints/1/" + field, List.of("alfen1/evcc_" + field),
+                    Long::toString));
+        }
+        for (String phase : List.of("l1", "l2", "l3")) {
+            evcc.add(new TrafficGenerator.Stream("evcc/loadpoints/1/chargeCurrents/" + phase,
+                    List.of("alfen1/evcc_" + phase), Long::toString));
+        }
+        List<TrafficGenerator.Stream> slimmelezer = IntStream.rangeClosed(1, options.slimmelezerItems())
+                .mapToObj(item -> new TrafficGenerator.Stream("slimmelezer/sensor/item" + item + "/state",
+                        List.of("slimmelezer/item" + item), Long::toString))
+                .toList();
+        return List.of(
+                new TrafficGenerator.Profile("alfen", options.alfenRate(), alfen, Map.of()),
+                new TrafficGenerator.Profile("qbus", options.qbusRate(), qbus,
+                        options.qbusOutputs() > 0 ? Map.of("qbus/ctrl1/info/outputs/switch", qbusInfo) : Map.of()),
+                new TrafficGenerator.Profile("evcc", options.evccRate(), evcc, Map.of()),
+                new TrafficGenerator.Profile("slimmelezer", options.slimmelezerRate(), slimmelezer, Map.of()));
+    }
+
+    /**
+     * The mapped properties and one the bridge has to skip, like the real meters publish.
+     */
+    private static String alfenProperties(int properties, long sequence) {
+        StringBuilder payload = new StringBuilder("[");
+        for (int p = 0; p < properties; p++) {
+            payload.append("{\"id\":\"p").append(p).append("\",\"access\":\"r\",\"type\":5,\"value\":")
+                    .append(sequence).append("},");
+        }
+        return payload.append("{\"id\":\"unmapped\",\"access\":\"r\",\"type\":5,\"value\":0}]").toString();
+    }
+
+    private static SmallRyeConfig config(Options options, int mqttPort, String endpoint) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("mqtt.enabled", "true");
+        properties.put("mqtt.host", "localhost");
+        properties.put("mqtt.port", Integer.toString(mqttPort));
+        properties.put("mqtt.connections", Integer.toString(options.connections()));
+        properties.put("emoncms.enabled", "true");
+        properties.put("emoncms.endpoint", endpoint);
+        properties.put("emoncms.apikey", "load");
+        properties.put("emoncms.flush.interval", options.flushInterval().toString());
+        properties.put("emoncms.bulk.enabled", Boolean.toString(options.bulk()));
+        properties.put("emoncms.bulk.interval", options.flushInterval().toString());
+        properties.put("alfen.enabled", Boolean.toString(options.alfenRate() > 0));
+        for (int meter = 1; meter <= options.alfenMeters(); meter++) {
+            for (int p = 0; p < options.alfenProperties(); p++) {
+                properties.put("alfen.input.properties.alfen" + meter + ".category.meter1.p" + p, "p" + p);
+            }
+        }
+        properties.put("qbus.enabled", Boolean.toString(options.qbusRate() > 0));
+        properties.put("qbus.types", "switch");
+        properties.put("evcc.enabled", Boolean.toString(options.evccRate() > 0));
+        Map.of("charge_total_import", "chargeTotalImport", "charge_power", "chargePower",
+                        "charge_current", "chargeCurrent", "phases_active", "phasesActive")
+                .forEach((property, field) -> properties.put("evcc.loadpoints.1." + property, "evcc_" + field));
+        for (int phase = 1; phase <= 3; phase++) {
+            properties.put("evcc.loadpoints.1.charge_current_" + phase, "evcc_l" + phase);
+        }
+        properties.put("slimmelezer.enabled", Boolean.toString(options.slimmelezerRate() > 0));
+        for (int item = 1; item <= options.slimmelezerItems(); item++) {
+            properties.put("slimmelezer.items.item" + item, "item" + item);
+        }
+        return new SmallRyeConfigBuilder()
+                .withSources(new PropertiesConfigSource(properties, "load-harness", 100))
+                .withConverter(Duration.class, 100, DURATIONS)
+                .withMapping(AlfenConfig.class)
+                .withMapping(EmoncmsConfig.class)
+                .withMapping(EvccConfig.class)
+                .withMapping(HistoryConfig.class)
+                .withMapping(MqttConfig.class)
+                .withMapping(QbusConfig.class)
+                .withMapping(SlimmelezerConfig.class)
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition, Duration timeout)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Timed out waiting for the bridge");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * The beans of the application, wired by hand.
+     */
+    private static final class Bridge {
+        private final MqttConfig mqttConfig;
+        private final EmonTransport transport;
+        private final EmonPoster poster;
+        private final EmonBulkPoster bulkPoster;
+        private final MqttSubscriberQbus qbus;
+        private final MqttSubscribers mqtt;
+
+        private Bridge(Vertx vertx, SmallRyeConfig config) {
+            ObjectMapper objectMapper = new ObjectMapper()
+                    .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+            EmoncmsConfig emoncmsConfig = config.getConfigMapping(EmoncmsConfig.class);
+            mqttConfig = config.getConfigMapping(MqttConfig.class);
+            BridgeMetrics metrics = new BridgeMetrics(new SimpleMeterRegistry());
+            FlushScheduler flushScheduler = new FlushScheduler(vertx, emoncmsConfig);
+            transport = new EmonTransport(vertx, emoncmsConfig, metrics);
+            poster = new EmonPoster(objectMapper, emoncmsConfig, vertx, new EmonOutbox(emoncmsConfig), metrics,
+                    flushScheduler, transport);
+            bulkPoster = new EmonBulkPoster(flushScheduler, poster, emoncmsConfig);
+            History history = new History(config.getConfigMapping(HistoryConfig.class));
+            qbus = new MqttSubscriberQbus(flushScheduler, mqttConfig, config.getConfigMapping(QbusConfig.class),
+                    objectMapper, poster, bulkPoster, metrics, emoncmsConfig);
+            mqtt = new MqttSubscribers(vertx, mqttConfig, metrics, new MqttCluster(vertx, mqttConfig, metrics));
+            mqtt.subscribers = List.of(
+                    new MqttSubscriberAlfen(objectMapper, config.getConfigMapping(AlfenConfig.class),
+                            new EmonPosterCache(flushScheduler, poster, bulkPoster, metrics, emoncmsConfig, history),
+                            metrics),
+                    new MqttSubscriberEvcc(config.getConfigMapping(EvccConfig.class),
+                            new EmonPosterCache(flushScheduler, poster, bulkPoster, metrics, emoncmsConfig, history),
+                            metrics),
+                    new MqttSubscriberSlimmelezer(config.getConfigMapping(SlimmelezerConfig.class),
+                            new EmonPosterCache(flushScheduler, poster, bulkPoster, metrics, emoncmsConfig, history),
+                            metrics),
+                    qbus);
+        }
+
+        private void start() {
+            transport.onStart(null);
+            poster.onStart(null);
+            bulkPoster.onStart(null);
+            qbus.onStart(null);
+            mqtt.onStart(null);
+        }
+
+        /**
+         * Subscriptions the bridge makes at the broker.
+         */
+        private int subscriptions() {
+            return mqtt.subscribers.stream()
+                    .mapToInt(subscriber -> MqttFilters.collapse(subscriber.getSubscriptions(),
+                            mqttConfig.collapseAbove()).size())
+                    .sum();
+        }
+
+        private void stop() {
+            mqtt.stop(null);
+            poster.onShutdown(null);
+            transport.onShutdown(null);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoadHarnessTest {
+
+    @Test
+    public void testEveryFeedArrives() throws Exception {
+        LoadHarness.Report report = LoadHarness.run(LoadHarness.Options.parse(Map.of(
+                "duration", "2s", "flush-interval", "200ms")));
+        assertEquals(2 * 10 + 20 + 7 + 8, report.feeds());
+        assertEquals(0, report.lostFeeds(), report::toString);
+        assertTrue(report.receivedSamples() > 0);
+        assertTrue(report.p99Nanos() >= report.p50Nanos());
+    }
+
+    @Test
+    public void testBurstsThroughBulk() throws Exception {
+        LoadHarness.Report report = LoadHarness.run(LoadHarness.Options.parse(Map.of(
+                "duration", "2s", "flush-interval", "200ms", "bulk", "true", "connections", "2",
+                "shape", "burst", "burst-every", "500ms")));
+        assertEquals(0, report.lostFeeds(), report::toString);
+        assertTrue(report.receivedSamples() > 0);
+    }
+}
@@ -0,0 +1,179 @@
+package org.acme;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.smallrye.config.PropertiesConfigSource;
+import io.smallrye.config.SmallRyeConfigBuilder;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.messages.MqttPublishMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Several nodes in one JVM against an embedded broker, every device has to end up on exactly one node.
+ */
+public class MqttClusterTest {
+    private Vertx vertx;
+    private TestMqttBroker broker;
+    private final List<Node> nodes = new ArrayList<>();
+    // device -> nodes that handled it
+    private final Map<String, Set<String>> handledBy = new ConcurrentHashMap<>();
+    private final AtomicInteger handled = new AtomicInteger();
+
+    private final class Node implements MqttSubscriber {
+        private final MqttCluster cluster;
+        private final MqttSubscribers subscribers;
+
+        /**
+         * @param shared null for the default
+         */
+        Node(String nodeId, Boolean shared) {
+            Map<String, String> properties = new HashMap<>(Map.of(
+                    "mqtt.host", "localhost",
+                    "mqtt.port", Integer.toString(broker.port()),
+                    "mqtt.enabled", "true",
+                    "mqtt.cluster.enabled", "true",
+                    "mqtt.cluster.node-id", nodeId));
+            if (shared != null) {
+                properties.put("mqtt.cluster.shared", shared.toString());
+            }
+            MqttConfig config = new SmallRyeConfigBuilder()
+                    .withSources(new PropertiesConfigSource(properties, "test", 100))
+                    .withMapping(MqttConfig.class)
+                    .build()
+                    .getConfigMapping(MqttConfig.class);
+            BridgeMetrics metrics = new BridgeMetrics(new SimpleMeterRegistry());
+            cluster = new MqttCluster(vertx, config, metrics);
+            subscribers = new MqttSubscribers(vertx, config, metrics, cluster);
+            subscribers.subscribers = List.of(this);
+            subscribers.onStart(null);
+        }
+
+        @Override
+        public String name() {
+            return "meters";
+        }
+
+        @Override
+        public List<String> getSubscriptions() {
+            return List.of("meters/#");
+        }
+
+        @Override
+        public String deviceKey(MqttTopic topic) {
+            return topic.level(1);
+        }
+
+        @Override
+        public void consume(MqttTopic topic, MqttPublishMessage msg) {
+            handledBy.computeIfAbsent(topic.level(1), d -> ConcurrentHashMap.newKeySet()).add(cluster.nodeId());
+            handled.incrementAndGet();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        broker = new TestMqttBroker(vertx);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        broker.close();
+        vertx.close().toCompletionStage().toCompletableFuture().get();
+    }
+
+    private void startNodes(Boolean shared) {
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new Node("node" + i, shared));
+        }
+        await(() -> nodes.stream().allMatch(node -> node.cluster.members() == 3));
+        // a data and two cluster subscriptions per node
+        await(() -> broker.subscriptions() == 9);
+    }
+
+    private void publish(int messages) {
+        for (int i = 0; i < messages; i++) {
+            broker.publish("meters/device" + (i % 20) + "/power", Buffer.buffer(Integer.toString(i)), false);
+        }
+    }
+
+    private void assertOwned() {
+        assertEquals(20, handledBy.size());
+        handledBy.forEach((device, handlers) -> {
+            assertEquals(1, handlers.size(), device + " handled by " + handlers);
+            assertEquals(nodes.getFirst().cluster.owner(device), handlers.iterator().next());
+        });
+        assertTrue(handledBy.values().stream().flatMap(Set::stream).distinct().count() > 1);
+    }
+
+    @Test
+    public void testSharedSubscriptionsForwardToOwner() {
+        startNodes(true);
+        publish(200);
+        await(() -> handled.get() == 200);
+        assertOwned();
+    }
+
+    @Test
+    public void testEveryNodeSkipsDevicesItDoesNotOwn() {
+        startNodes(false);
+        publish(200);
+        await(() -> handled.get() == 200);
+        assertOwned();
+    }
+
+    @Test
+    public void testRetainedMessagesReachTheirOwnerByDefault() {
+        // like the Qbus outputs, published once long before the nodes start
+        for (int i = 0; i < 20; i++) {
+            broker.publish("meters/device" + i + "/info", Buffer.buffer("outputs"), true);
+        }
+        startNodes(null);
+        await(() -> handledBy.size() == 20 && handledBy.entrySet().stream()
+                .allMatch(e -> e.getValue().contains(nodes.getFirst().cluster.owner(e.getKey()))));
+    }
+
+    @Test
+    public void testLeavingNodeHandsOverItsDevices() {
+        startNodes(true);
+        Node leaving = nodes.removeLast();
+        leaving.subscribers.stop(null);
+        await(() -> nodes.stream().allMatch(node -> node.cluster.members() == 2));
+        // the data and cluster subscriptions of the remaining nodes
+        await(() -> broker.subscriptions() == 6);
+        publish(200);
+        await(() -> handled.get() == 200);
+        assertOwned();
+        assertTrue(handledBy.values().stream().noneMatch(handlers -> handlers.contains("node2")));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out");
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MqttFiltersTest {
+
+    @Test
+    public void testKeepsExactTopics() {
+        List<String> topics = List.of("slimmelezer/sensor/power_consumed/state", "slimmelezer/sensor/power_produced/state");
+        assertEquals(topics, MqttFilters.collapse(topics, 2));
+        assertEquals(topics, MqttFilters.collapse(topics, 0));
+    }
+
+    @Test
+    public void testCollapsesLevel() {
+        List<String> topics = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            topics.add("slimmelezer/sensor/power_" + i + "/state");
+        }
+        topics.add("evcc/loadpoints/1/chargePower");
+        assertEquals(List.of("evcc/loadpoints/1/chargePower", "slimmelezer/sensor/+/state"),
+                MqttFilters.collapse(topics, 2));
+    }
+
+    @Test
+    public void testCollapsesRepeatedly() {
+        List<String> topics = new ArrayList<>();
+        for (String meter : List.of("alfen1", "alfen2", "alfen3")) {
+            for (String category : List.of("meter1", "meter2", "generic2")) {
+                topics.add("alfen/properties/" + meter + "/category/" + category);
+            }
+        }
+        assertEquals(List.of("alfen/properties/+/category/+"), MqttFilters.collapse(topics, 2));
+    }
+}
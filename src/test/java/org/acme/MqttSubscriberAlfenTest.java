@@ -0,0 +1,36 @@
+package org.acme;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MqttSubscriberAlfenTest {
+
+    @Test
+    public void testReadProperties() throws Exception {
+        String payload = """
+                [
+                  {"name": "meter1_currentL1", "id": "2221_A", "value": 6.25, "type": 8, "cat": "meter1"},
+                  {"id": "2221_B", "name": "meter1_currentL2", "value": 7, "extra": {"nested": [1, 2]}},
+                  {"id": "2221_16", "value": "n/a"},
+                  {"id": "2221_3", "value": 231.4},
+                  {"id": "2221_C", "value": null}
+                ]
+                """;
+        TopicNameIndex<String> feeds = TopicNameIndex.of(Map.of(
+                "2221_A", "meter1_currentL1",
+                "2221_B", "meter1_currentL2",
+                "2221_C", "meter1_currentL3",
+                "2221_16", "meter1_powerRealSum"));
+        try (JsonParser parser = new JsonFactory().createParser(payload)) {
+            assertEquals(Map.of(
+                    "meter1_currentL1", 6.25,
+                    "meter1_currentL2", 7.0,
+                    "meter1_powerRealSum", "n/a"), MqttSubscriberAlfen.readProperties(parser, feeds));
+        }
+    }
+}
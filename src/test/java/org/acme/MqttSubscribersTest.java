@@ -0,0 +1,28 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MqttSubscribersTest {
+    private static final List<String> FILTERS = List.of("alfen/#", "evcc/#", "qbus/+/info/outputs/#");
+
+    @Test
+    public void testPartitionFilters() {
+        assertEquals(List.of(List.of("alfen/#", "qbus/+/info/outputs/#"), List.of("evcc/#")),
+                MqttSubscribers.partition(FILTERS, 2, null));
+        // no connection without filters
+        assertEquals(3, MqttSubscribers.partition(FILTERS, 8, null).size());
+        assertEquals(List.of(FILTERS), MqttSubscribers.partition(FILTERS, 1, null));
+    }
+
+    @Test
+    public void testPartitionShared() {
+        List<String> shared = List.of("$share/g/alfen/#", "$share/g/evcc/#", "$share/g/qbus/+/info/outputs/#");
+        assertEquals(List.of(shared, shared), MqttSubscribers.partition(FILTERS, 2, "g"));
+        // a single node of a cluster
+        assertEquals(List.of(shared), MqttSubscribers.partition(FILTERS, 1, "g"));
+    }
+}
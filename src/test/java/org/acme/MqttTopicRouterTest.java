@@ -0,0 +1,88 @@
+package org.acme;
+
+import io.vertx.mqtt.messages.MqttPublishMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MqttTopicRouterTest {
+
+    private static MqttSubscriber subscriber(String... filters) {
+        return new MqttSubscriber() {
+            @Override
+            public String name() {
+                return String.join(",", filters);
+            }
+
+            @Override
+            public List<String> getSubscriptions() {
+                return List.of(filters);
+            }
+
+            @Override
+            public String deviceKey(MqttTopic topic) {
+                return name();
+            }
+
+            @Override
+            public void consume(MqttTopic topic, MqttPublishMessage msg) {
+            }
+        };
+    }
+
+    private static void assertRoutes(MqttTopicRouter router, String topic, MqttSubscriber... expected) {
+        List<MqttSubscriber> routed = router.route(MqttTopic.of(topic));
+        assertEquals(Set.of(expected), Set.copyOf(routed));
+        assertEquals(expected.length, routed.size());
+    }
+
+    @Test
+    public void testTopicLevels() {
+        MqttTopic topic = MqttTopic.of("qbus/1/sensor/switch/12/state");
+        assertEquals(6, topic.levels());
+        assertEquals("qbus", topic.level(0));
+        assertEquals("12", topic.level(4));
+        assertEquals("state", topic.level(5));
+        assertTrue(topic.levelEquals(2, "sensor"));
+        assertEquals(12, topic.parseInt(4));
+
+        MqttTopic empty = MqttTopic.of("a//b/");
+        assertEquals(4, empty.levels());
+        assertEquals("", empty.level(1));
+        assertEquals("", empty.level(3));
+    }
+
+    @Test
+    public void testWildcards() {
+        MqttSubscriber alfen = subscriber("alfen/properties/#");
+        MqttSubscriber qbus = subscriber("qbus/+/info/outputs/#", "qbus/+/sensor/+/+/state");
+        MqttSubscriber all = subscriber("#");
+        MqttTopicRouter router = new MqttTopicRouter(List.of(alfen, qbus, all));
+
+        assertRoutes(router, "alfen/properties/alfen1/category/meter1", alfen, all);
+        assertRoutes(router, "alfen/properties", alfen, all);
+        assertRoutes(router, "qbus/1/sensor/switch/12/state", qbus, all);
+        assertRoutes(router, "qbus/1/info/outputs/switch", qbus, all);
+        assertRoutes(router, "qbus/1/sensor/switch/state", all);
+        assertRoutes(router, "$SYS/broker/uptime");
+    }
+
+    @Test
+    public void testSubscriberMatchedOnce() {
+        MqttSubscriber evcc = subscriber("evcc/#", "evcc/loadpoints/+/chargePower");
+        MqttTopicRouter router = new MqttTopicRouter(List.of(evcc));
+        assertRoutes(router, "evcc/loadpoints/1/chargePower", evcc);
+        assertRoutes(router, "slimmelezer/sensor/power_consumed/state");
+    }
+
+    @Test
+    public void testInvalidFilter() {
+        assertThrows(IllegalArgumentException.class, () -> new MqttTopicRouter(List.of(subscriber("evcc/#/x"))));
+        assertThrows(IllegalArgumentException.class, () -> new MqttTopicRouter(List.of(subscriber("evcc/load+"))));
+    }
+}
@@ -0,0 +1,37 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class QbusOutputNamesTest {
+
+    @Test
+    public void testLookup() {
+        QbusOutputNames names = QbusOutputNames.of(List.of(
+                new MqttSubscriberQbus.Info(12, "kitchen"),
+                new MqttSubscriberQbus.Info(3, "hall"),
+                new MqttSubscriberQbus.Info(250, "garage")));
+        assertEquals(3, names.size());
+        assertEquals("hall", names.name(3));
+        assertEquals("kitchen", names.name(12));
+        assertEquals("garage", names.name(250));
+        assertNull(names.name(4));
+        assertNull(names.name(-1));
+    }
+
+    @Test
+    public void testIncompleteAndDuplicateOutputs() {
+        QbusOutputNames names = QbusOutputNames.of(List.of(
+                new MqttSubscriberQbus.Info(1, "old"),
+                new MqttSubscriberQbus.Info(null, "no id"),
+                new MqttSubscriberQbus.Info(2, null),
+                new MqttSubscriberQbus.Info(1, "new")));
+        assertEquals(1, names.size());
+        assertEquals("new", names.name(1));
+        assertNull(names.name(2));
+    }
+}
@@ -0,0 +1,55 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QbusStateStoreTest {
+
+    private final QbusStateStore.Drained into = new QbusStateStore.Drained();
+
+    private Map<Integer, Integer> drain(QbusStateStore store, boolean all) {
+        store.drain(all, into);
+        Map<Integer, Integer> drained = new HashMap<>();
+        for (int i = 0; i < into.size(); i++) {
+            drained.put(into.id(i), into.state(i));
+        }
+        return drained;
+    }
+
+    @Test
+    public void testDirtyTracking() {
+        QbusStateStore store = new QbusStateStore();
+        assertTrue(store.put(12, 100));
+        assertTrue(store.put(7, 0));
+        assertEquals(Map.of(12, 100, 7, 0), drain(store, false));
+        assertEquals(Map.of(), drain(store, false));
+
+        assertFalse(store.put(12, 100));
+        assertTrue(store.put(7, 1));
+        assertEquals(Map.of(7, 1), drain(store, false));
+        assertEquals(Map.of(12, 100, 7, 1), drain(store, true));
+
+        store.markAllDirty();
+        assertEquals(Map.of(12, 100, 7, 1), drain(store, false));
+    }
+
+    @Test
+    public void testGrow() {
+        QbusStateStore store = new QbusStateStore();
+        for (int id = 0; id < 1000; id++) {
+            store.put(id * 31, id);
+        }
+        assertEquals(1000, store.size());
+        Map<Integer, Integer> drained = drain(store, false);
+        assertEquals(1000, drained.size());
+        for (int id = 0; id < 1000; id++) {
+            assertEquals(id, drained.get(id * 31));
+        }
+    }
+}
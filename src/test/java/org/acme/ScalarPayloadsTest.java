@@ -0,0 +1,52 @@
+package org.acme;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ScalarPayloadsTest {
+
+    private static double parseDouble(String payload) {
+        return ScalarPayloads.parseDouble(Buffer.buffer(payload));
+    }
+
+    private static int parseInt(String payload) {
+        return ScalarPayloads.parseInt(Buffer.buffer(payload));
+    }
+
+    @Test
+    public void testParseDouble() {
+        for (String value : new String[]{"0", "1", "-1", "230.5", "0.123", "-0.001", "1000.000", "12345678.9",
+                "1e3", "2.5E-4", "+7", "3.14159265358979", "0.1", "9007199254740993", "1e-30", "NaN", "-Infinity"}) {
+            assertEquals(Double.parseDouble(value), parseDouble(value), value);
+        }
+        assertEquals(230.5, parseDouble(" 230.5\n"));
+    }
+
+    @Test
+    public void testParseDoubleSlice() {
+        Buffer payload = Buffer.buffer("xx1.75yy").slice(2, 6);
+        assertEquals(1.75, ScalarPayloads.parseDouble(payload));
+    }
+
+    @Test
+    public void testParseInt() {
+        assertEquals(0, parseInt("0"));
+        assertEquals(100, parseInt("100"));
+        assertEquals(-42, parseInt("-42"));
+        assertEquals(Integer.MAX_VALUE, parseInt("2147483647"));
+        assertEquals(Integer.MIN_VALUE, parseInt("-2147483648"));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertThrows(NumberFormatException.class, () -> parseDouble(""));
+        assertThrows(NumberFormatException.class, () -> parseDouble("abc"));
+        assertThrows(NumberFormatException.class, () -> parseDouble("-"));
+        assertThrows(NumberFormatException.class, () -> parseInt("2147483648"));
+        assertThrows(NumberFormatException.class, () -> parseInt("1.5"));
+        assertThrows(NumberFormatException.class, () -> parseInt(""));
+    }
+}
@@ -0,0 +1,140 @@
+package org.acme;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttEndpoint;
+import io.vertx.mqtt.MqttServer;
+import io.vertx.mqtt.MqttServerOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Just enough of an MQTT broker for tests: wildcards, retained messages, wills and shared
+ * subscriptions, which get the messages round robin per group and no retained messages. Everything
+ * is delivered at most once.
+ */
+final class TestMqttBroker implements AutoCloseable {
+    private final MqttServer server;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Map<String, Buffer> retained = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> groups = new ConcurrentHashMap<>();
+    private final Set<MqttEndpoint> disconnected = ConcurrentHashMap.newKeySet();
+
+    private record Subscription(MqttEndpoint endpoint, String group, String filter) {
+    }
+
+    TestMqttBroker(Vertx vertx) throws Exception {
+        server = MqttServer.create(vertx, new MqttServerOptions().setPort(0));
+        server.endpointHandler(this::connected);
+        server.listen().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    int port() {
+        return server.actualPort();
+    }
+
+    int subscriptions() {
+        return subscriptions.size();
+    }
+
+    private void connected(MqttEndpoint endpoint) {
+        endpoint.accept(false);
+        endpoint.publishHandler(msg -> {
+            if (msg.qosLevel() == MqttQoS.AT_LEAST_ONCE) {
+                endpoint.publishAcknowledge(msg.messageId());
+            }
+            publish(msg.topicName(), msg.payload(), msg.isRetain());
+        });
+        endpoint.subscribeHandler(subscribe -> {
+            List<MqttQoS> granted = new ArrayList<>();
+            subscribe.topicSubscriptions().forEach(topic -> {
+                String filter = topic.topicName();
+                String group = null;
+                if (filter.startsWith("$share/")) {
+                    int end = filter.indexOf('/', "$share/".length());
+                    group = filter.substring("$share/".length(), end);
+                    filter = filter.substring(end + 1);
+                }
+                subscriptions.add(new Subscription(endpoint, group, filter));
+                granted.add(MqttQoS.AT_MOST_ONCE);
+                if (group == null) {
+                    String plain = filter;
+                    retained.forEach((name, payload) -> {
+                        if (matches(plain, name)) {
+                            endpoint.publish(name, payload, MqttQoS.AT_MOST_ONCE, false, true);
+                        }
+                    });
+                }
+            });
+            endpoint.subscribeAcknowledge(subscribe.messageId(), granted);
+        });
+        // the will is only published when the connection is lost without a disconnect
+        endpoint.disconnectHandler(v -> disconnected.add(endpoint));
+        endpoint.closeHandler(v -> {
+            subscriptions.removeIf(subscription -> subscription.endpoint() == endpoint);
+            if (!disconnected.remove(endpoint) && endpoint.will() != null && endpoint.will().isWillFlag()) {
+                publish(endpoint.will().getWillTopic(), Buffer.buffer(endpoint.will().getWillMessageBytes()),
+                        endpoint.will().isWillRetain());
+            }
+        });
+    }
+
+    void publish(String topic, Buffer payload, boolean retain) {
+        if (retain) {
+            if (payload.length() == 0) {
+                retained.remove(topic);
+            } else {
+                retained.put(topic, payload);
+            }
+        }
+        Map<String, List<Subscription>> shared = new ConcurrentHashMap<>();
+        for (Subscription subscription : subscriptions) {
+            if (!matches(subscription.filter(), topic)) {
+                continue;
+            }
+            if (subscription.group() == null) {
+                deliver(subscription, topic, payload);
+            } else {
+                shared.computeIfAbsent(subscription.group() + "/" + subscription.filter(), g -> new ArrayList<>())
+                        .add(subscription);
+            }
+        }
+        shared.forEach((group, members) -> {
+            int next = groups.computeIfAbsent(group, g -> new AtomicInteger()).getAndIncrement();
+            deliver(members.get(Math.floorMod(next, members.size())), topic, payload);
+        });
+    }
+
+    private static void deliver(Subscription subscription, String topic, Buffer payload) {
+        if (subscription.endpoint().isConnected()) {
+            subscription.endpoint().publish(topic, payload, MqttQoS.AT_MOST_ONCE, false, false);
+        }
+    }
+
+    static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i >= topicLevels.length || !(filterLevels[i].equals("+") || filterLevels[i].equals(topicLevels[i]))) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    @Override
+    public void close() throws Exception {
+        server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
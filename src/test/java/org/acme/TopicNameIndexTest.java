@@ -0,0 +1,29 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TopicNameIndexTest {
+
+    @Test
+    public void testGet() {
+        TopicNameIndex<String> items = TopicNameIndex.of(Map.of(
+                "power_consumed", "consumed",
+                "power_consumed_phase_1", "consumed_l1",
+                "power_produced", "produced"));
+        MqttTopic topic = MqttTopic.of("slimmelezer/sensor/power_consumed_phase_1/state");
+        assertEquals("consumed_l1", items.get(topic, 2));
+        assertEquals("consumed", items.get(MqttTopic.of("slimmelezer/sensor/power_consumed/state"), 2));
+        assertNull(items.get(topic, 1));
+    }
+
+    @Test
+    public void testEmpty() {
+        MqttTopic topic = MqttTopic.of("slimmelezer/sensor/power_consumed/state");
+        assertNull(TopicNameIndex.of(Map.of()).get(topic, 2));
+    }
+}
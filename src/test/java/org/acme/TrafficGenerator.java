@@ -0,0 +1,205 @@
+package org.acme;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClient;
+import io.vertx.mqtt.MqttClientOptions;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongFunction;
+
+/**
+ * Publishes the topics and payloads of the meters to a broker at a configured rate. Every message
+ * carries the sequence number of its stream as value of all its feeds, so a sample arriving at
+ * emoncms can be traced back to the time it was published.
+ */
+final class TrafficGenerator implements AutoCloseable {
+    private static final long TICK_MILLIS = 10;
+
+    enum Shape {
+        /**
+         * Spread evenly over time.
+         */
+        STEADY,
+        /**
+         * All messages of a burst interval published at its start.
+         */
+        BURST
+    }
+
+    /**
+     * A topic published over and over, the payload of a sequence number sets all feeds to it.
+     *
+     * @param feeds {@code <device>/<feed>} as posted to emoncms
+     */
+    record Stream(String topic, List<String> feeds, LongFunction<String> payload) {
+    }
+
+    /**
+     * Streams published round robin at a rate in messages per second, the retained messages are
+     * published once up front.
+     */
+    record Profile(String name, double rate, List<Stream> streams, Map<String, String> retained) {
+    }
+
+    private final Vertx vertx;
+    private final MqttClient client;
+    private final List<Source> sources;
+    private final Map<String, Source.Feed> feeds = new HashMap<>();
+    private final Shape shape;
+    private final Duration burstEvery;
+
+    TrafficGenerator(Vertx vertx, int port, List<Profile> profiles, Duration duration, Shape shape,
+                     Duration burstEvery) throws Exception {
+        this.vertx = vertx;
+        this.shape = shape;
+        this.burstEvery = burstEvery;
+        this.sources = profiles.stream()
+                .filter(profile -> profile.rate() > 0 && !profile.streams().isEmpty())
+                .map(profile -> new Source(profile, duration))
+                .toList();
+        for (Source source : sources) {
+            for (int i = 0; i < source.streams.size(); i++) {
+                for (String feed : source.streams.get(i).feeds()) {
+                    feeds.put(feed, new Source.Feed(source, i));
+                }
+            }
+        }
+        client = MqttClient.create(vertx, new MqttClientOptions().setClientId("load-generator"));
+        client.connect(port, "localhost").toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        CompletableFuture<?>[] retained = profiles.stream()
+                .flatMap(profile -> profile.retained().entrySet().stream())
+                .map(e -> client.publish(e.getKey(), Buffer.buffer(e.getValue()), MqttQoS.AT_LEAST_ONCE, false, true)
+                        .toCompletionStage().toCompletableFuture())
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(retained).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Feeds of all streams.
+     */
+    Set<String> feeds() {
+        return feeds.keySet();
+    }
+
+    /**
+     * Publishes until the duration has passed, completes once the last message is published.
+     */
+    CompletableFuture<Void> run() {
+        Promise<Void> done = Promise.promise();
+        long start = System.nanoTime();
+        vertx.setPeriodic(TICK_MILLIS, timer -> {
+            long elapsed = System.nanoTime() - start;
+            boolean finished = true;
+            for (Source source : sources) {
+                finished &= source.publish(elapsed);
+            }
+            if (finished) {
+                vertx.cancelTimer(timer);
+                done.complete();
+            }
+        });
+        return done.future().toCompletionStage().toCompletableFuture();
+    }
+
+    /**
+     * Time a sequence number of a feed was published, -1 when it was not.
+     */
+    long publishedAt(String feed, long sequence) {
+        Source.Feed f = feeds.get(feed);
+        return f == null ? -1 : f.source().publishedAt(f.stream(), sequence);
+    }
+
+    /**
+     * Last sequence number published of a feed, 0 when none was.
+     */
+    long lastPublished(String feed) {
+        Source.Feed f = feeds.get(feed);
+        return f == null ? 0 : f.source().sequences[f.stream()];
+    }
+
+    long publishedMessages() {
+        return sources.stream().mapToLong(source -> source.sent).sum();
+    }
+
+    long publishedSamples() {
+        return sources.stream().mapToLong(Source::samples).sum();
+    }
+
+    @Override
+    public void close() throws Exception {
+        client.disconnect().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private final class Source {
+        private final List<Stream> streams;
+        private final double rate;
+        private final long total;
+        // the next sequence number is one more, only written by the timer
+        private final long[] sequences;
+        private final AtomicLongArray[] publishedAt;
+        private long sent;
+        private int next;
+
+        private record Feed(Source source, int stream) {
+        }
+
+        private Source(Profile profile, Duration duration) {
+            this.streams = profile.streams();
+            this.rate = profile.rate();
+            this.total = (long) Math.ceil(rate * duration.toNanos() / 1e9);
+            this.sequences = new long[streams.size()];
+            this.publishedAt = new AtomicLongArray[streams.size()];
+            int perStream = (int) (total / streams.size()) + 2;
+            for (int i = 0; i < streams.size(); i++) {
+                publishedAt[i] = new AtomicLongArray(perStream);
+            }
+        }
+
+        /**
+         * Publishes the messages due after the elapsed time, returns whether all were published.
+         */
+        private boolean publish(long elapsedNanos) {
+            long due = Math.min(total, (long) (rate * due(elapsedNanos) / 1e9));
+            for (; sent < due; sent++) {
+                int stream = next;
+                next = (next + 1) % streams.size();
+                long sequence = ++sequences[stream];
+                publishedAt[stream].set((int) sequence, System.nanoTime());
+                client.publish(streams.get(stream).topic(), Buffer.buffer(streams.get(stream).payload().apply(sequence)),
+                        MqttQoS.AT_MOST_ONCE, false, false);
+            }
+            return sent >= total;
+        }
+
+        private long due(long elapsedNanos) {
+            if (shape == Shape.STEADY) {
+                return elapsedNanos;
+            }
+            long burst = burstEvery.toNanos();
+            return (elapsedNanos / burst + 1) * burst;
+        }
+
+        private long publishedAt(int stream, long sequence) {
+            return sequence > 0 && sequence < publishedAt[stream].length() && sequence <= sequences[stream]
+                    ? publishedAt[stream].get((int) sequence) : -1;
+        }
+
+        private long samples() {
+            long samples = 0;
+            for (int i = 0; i < streams.size(); i++) {
+                samples += sequences[i] * streams.get(i).feeds().size();
+            }
+            return samples;
+        }
+    }
+}